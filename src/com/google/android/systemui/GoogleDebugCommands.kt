@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui
+
+import android.content.Context
+import android.os.Handler
+import com.android.systemui.CoreStartable
+import com.android.systemui.dagger.SysUISingleton
+import com.android.systemui.dagger.qualifiers.Background
+import com.android.systemui.dagger.qualifiers.Main
+import com.android.systemui.navigationbar.NavigationModeController
+import com.android.systemui.statusbar.commandline.CommandRegistry
+import com.google.android.systemui.assist.AssistantWarmupController
+import com.google.android.systemui.assist.uihints.NgaDispatchBenchmarkCommand
+import com.google.android.systemui.assist.uihints.NgaUiController
+import com.google.android.systemui.columbus.GestureLatencyTracer
+import com.google.android.systemui.columbus.sensors.ReplayGestureSensor
+import dagger.Lazy
+import java.util.concurrent.Executor
+import javax.inject.Inject
+
+/**
+ * Registers the `cmd statusbar` replay and benchmark commands of features that have no
+ * startable of their own. Each command runs on the background executor, since they block
+ * for as long as they measure, and the objects they drive are only created when a
+ * command is run.
+ */
+@SysUISingleton
+class GoogleDebugCommands
+@Inject
+constructor(
+    context: Context,
+    private val commandRegistry: CommandRegistry,
+    @Background private val bgExecutor: Executor,
+    @Main private val mainHandler: Handler,
+    private val replayGestureSensor: Lazy<ReplayGestureSensor>,
+    private val gestureLatencyTracer: Lazy<GestureLatencyTracer>,
+    private val assistantWarmupController: Lazy<AssistantWarmupController>,
+    private val ngaUiController: Lazy<NgaUiController>,
+    private val navigationModeController: Lazy<NavigationModeController>
+) : CoreStartable(context) {
+    private val ngaDispatchBenchmark by lazy {
+        NgaDispatchBenchmarkCommand(
+            mContext,
+            ngaUiController.get(),
+            navigationModeController.get(),
+            mainHandler
+        )
+    }
+
+    override fun start() {
+        if (ReplayGestureSensor.isEnabled()) {
+            commandRegistry.registerCommand(
+                ReplayGestureSensor.COMMAND_NAME,
+                { replayGestureSensor.get().newCommand() },
+                bgExecutor
+            )
+        }
+        commandRegistry.registerCommand(
+            GestureLatencyTracer.COMMAND_NAME,
+            { gestureLatencyTracer.get().newCommand() },
+            bgExecutor
+        )
+        commandRegistry.registerCommand(
+            AssistantWarmupController.COMMAND_NAME,
+            { assistantWarmupController.get().newCommand() },
+            bgExecutor
+        )
+        commandRegistry.registerCommand(
+            NgaDispatchBenchmarkCommand.NAME,
+            { ngaDispatchBenchmark },
+            bgExecutor
+        )
+    }
+}
@@ -16,6 +16,9 @@
 package com.google.android.systemui
 
 import android.content.Context
+import android.os.SystemClock
+import android.os.Trace
+import android.util.Log
 import com.android.internal.logging.UiEventLogger
 import com.android.systemui.Dumpable
 import com.android.systemui.KtR
@@ -24,9 +27,9 @@ import com.android.systemui.dagger.SysUISingleton
 import com.google.android.systemui.autorotate.AutorotateDataService
 import com.google.android.systemui.columbus.ColumbusServiceWrapper
 import com.google.android.systemui.coversheet.CoversheetService
+import com.google.android.systemui.elmyra.ElmyraComponent
 import com.google.android.systemui.elmyra.ElmyraContext
 import com.google.android.systemui.elmyra.ElmyraService
-import com.google.android.systemui.elmyra.ServiceConfigurationGoogle
 import com.google.android.systemui.face.FaceNotificationService
 import com.google.android.systemui.input.TouchContextService
 import dagger.Lazy
@@ -38,7 +41,7 @@ class GoogleServices
 @Inject
 constructor(
     context: Context,
-    private val serviceConfigurationGoogle: Lazy<ServiceConfigurationGoogle>,
+    private val elmyraComponentFactory: ElmyraComponent.Factory,
     private val uiEventLogger: UiEventLogger,
     private val columbusServiceLazy: Lazy<ColumbusServiceWrapper>,
     private val autorotateDataService: AutorotateDataService,
@@ -47,17 +50,39 @@ constructor(
     private val services: ArrayList<Any>
         get() = arrayListOf()
 
+    /** Time spent in [start] and its squeeze phases, for `dumpsys`; -1 if not reached. */
+    private var startNanos = -1L
+    private var elmyraCheckNanos = -1L
+    private var elmyraProvisionNanos = -1L
+
     override fun start() {
+        Trace.beginSection("GoogleServices#start")
+        val start = SystemClock.elapsedRealtimeNanos()
+        try {
+            startServices()
+        } finally {
+            startNanos = SystemClock.elapsedRealtimeNanos() - start
+            Trace.endSection()
+        }
+        Log.d(TAG, "start took ${micros(startNanos)}, " +
+            "squeeze check ${micros(elmyraCheckNanos)}, " +
+            "squeeze provisioning ${micros(elmyraProvisionNanos)}")
+    }
+
+    private fun startServices() {
         addService(DisplayCutoutEmulationAdapter(mContext))
         addService(CoversheetService(mContext))
         autorotateDataService.let {
             it.init()
             addService(it)
         }
-        when {
+        val elmyraCheckStart = SystemClock.elapsedRealtimeNanos()
+        val elmyraAvailable =
             mContext.packageManager.hasSystemFeature("android.hardware.context_hub")
-                    && ElmyraContext(mContext).isAvailable ->
-                addService(ElmyraService(mContext, serviceConfigurationGoogle.get(), uiEventLogger))
+                    && ElmyraContext(mContext).isAvailable
+        elmyraCheckNanos = SystemClock.elapsedRealtimeNanos() - elmyraCheckStart
+        when {
+            elmyraAvailable -> addService(startElmyra())
         }
         when {
             mContext.packageManager.hasSystemFeature("com.google.android.feature.QUICK_TAP") ->
@@ -73,15 +98,39 @@ constructor(
         }
     }
 
+    /** Builds the squeeze graph; only called once the hardware check passed. */
+    private fun startElmyra(): ElmyraService {
+        Trace.beginSection("GoogleServices#startElmyra")
+        val start = SystemClock.elapsedRealtimeNanos()
+        try {
+            val serviceConfiguration = elmyraComponentFactory.create().serviceConfiguration
+            return ElmyraService(mContext, serviceConfiguration, uiEventLogger)
+        } finally {
+            elmyraProvisionNanos = SystemClock.elapsedRealtimeNanos() - start
+            Trace.endSection()
+        }
+    }
+
     private fun addService(service: Any?) {
         when { service != null -> services.add(service) }
     }
 
     override fun dump(pw: PrintWriter, args: Array<String>) {
+        pw.println("GoogleServices startup: total=${micros(startNanos)} " +
+            "squeezeCheck=${micros(elmyraCheckNanos)} " +
+            "squeezeProvision=${micros(elmyraProvisionNanos)}")
         services.indices.forEach {
             if (services[it] is Dumpable) {
                 (services[it] as Dumpable).dump(pw, args)
             }
         }
     }
+
+    private fun micros(nanos: Long): String =
+        if (nanos < 0) "n/a" else "${nanos / NANOS_PER_MICRO}us"
+
+    companion object {
+        private const val TAG = "GoogleServices"
+        private const val NANOS_PER_MICRO = 1000L
+    }
 }
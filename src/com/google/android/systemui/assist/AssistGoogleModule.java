@@ -36,6 +36,7 @@ import com.android.systemui.assist.ui.DefaultUiController;
 import com.android.systemui.dagger.SysUISingleton;
 import com.android.systemui.dagger.qualifiers.Background;
 import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.keyguard.domain.interactor.KeyguardBottomAreaInteractor;
 import com.android.systemui.model.SysUiState;
 import com.android.systemui.navigationbar.NavigationBarController;
@@ -87,7 +88,8 @@ public interface AssistGoogleModule {
             DefaultUiController defaultUiController,
             GoogleDefaultUiController googleDefaultUiController,
             IWindowManager windowManagerService,
-            AssistLogger assistLogger) {
+            AssistLogger assistLogger,
+            AssistantWarmupController assistantWarmupController) {
         return new AssistManagerGoogle(
                 controller,
                 context,
@@ -107,7 +109,8 @@ public interface AssistGoogleModule {
                 defaultUiController,
                 googleDefaultUiController,
                 windowManagerService,
-                assistLogger);
+                assistLogger,
+                assistantWarmupController);
     }
 
     @Provides
@@ -130,7 +133,9 @@ public interface AssistGoogleModule {
             FlingVelocityWrapper flingVelocity,
             AssistantWarmer assistantWarmer,
             NavBarFader navBarFader,
-            AssistLogger assistLogger) {
+            AssistLogger assistLogger,
+            OverlayWarmer overlayWarmer) {
+        // The warmer is only requested here so it starts with the overlay it keeps warm.
         return new NgaUiController(
                 context,
                 timeoutManager,
@@ -194,6 +199,18 @@ public interface AssistGoogleModule {
         return new AssistantWarmer(context);
     }
 
+    @Provides
+    @SysUISingleton
+    static AssistantWarmupController provideAssistantWarmupController(
+            Context context,
+            @Main Handler mainHandler,
+            DumpManager dumpManager) {
+        AssistantWarmupController controller =
+                new AssistantWarmupController(context, mainHandler);
+        dumpManager.registerDumpable("AssistantWarmupController", controller);
+        return controller;
+    }
+
     @Provides
     @SysUISingleton
     static GoogleDefaultUiController provideGoogleDefaultUiController(
@@ -314,6 +331,18 @@ public interface AssistGoogleModule {
         return new OverlayUiHost(context, touchOutsideHandler);
     }
 
+    @Provides
+    @SysUISingleton
+    static OverlayWarmer provideOverlayWarmer(
+            Context context,
+            OverlayUiHost uiHost,
+            ConfigurationController configurationController,
+            DumpManager dumpManager) {
+        OverlayWarmer overlayWarmer = new OverlayWarmer(context, uiHost, configurationController);
+        dumpManager.registerDumpable("OverlayWarmer", overlayWarmer);
+        return overlayWarmer;
+    }
+
     @Provides
     @SysUISingleton
     static ScrimController provideScrimController(
@@ -382,8 +411,7 @@ public interface AssistGoogleModule {
             AssistantPresenceHandler assistantPresenceHandler,
             NavigationModeController navigationModeController,
             Set<NgaMessageHandler.KeepAliveListener> keepAliveListeners,
-            Set<NgaMessageHandler.AudioInfoListener> audioInfoListeners,
-            Set<NgaMessageHandler.CardInfoListener> cardInfoListeners,
+            FrameAlignedHintCoalescer frameAlignedHintCoalescer,
             Set<NgaMessageHandler.ConfigInfoListener> configInfoListeners,
             Set<NgaMessageHandler.EdgeLightsInfoListener> edgeLightsInfoListeners,
             Set<NgaMessageHandler.TranscriptionInfoListener> transcriptionInfoListeners,
@@ -399,13 +427,14 @@ public interface AssistGoogleModule {
             Set<NgaMessageHandler.WarmingListener> warmingListeners,
             Set<NgaMessageHandler.NavBarVisibilityListener> navBarVisibilityListeners,
             Handler handler) {
-        return new NgaMessageHandler(
+        return new CompiledNgaMessageHandler(
                 ngaUiController,
                 assistantPresenceHandler,
                 navigationModeController,
+                frameAlignedHintCoalescer,
                 keepAliveListeners,
-                audioInfoListeners,
-                cardInfoListeners,
+                Collections.singleton(frameAlignedHintCoalescer),
+                Collections.singleton(frameAlignedHintCoalescer),
                 configInfoListeners,
                 edgeLightsInfoListeners,
                 transcriptionInfoListeners,
@@ -423,6 +452,18 @@ public interface AssistGoogleModule {
                 handler);
     }
 
+    @Provides
+    @SysUISingleton
+    static FrameAlignedHintCoalescer provideFrameAlignedHintCoalescer(
+            Set<NgaMessageHandler.AudioInfoListener> audioInfoListeners,
+            Set<NgaMessageHandler.CardInfoListener> cardInfoListeners,
+            DumpManager dumpManager) {
+        FrameAlignedHintCoalescer coalescer =
+                new FrameAlignedHintCoalescer(audioInfoListeners, cardInfoListeners);
+        dumpManager.registerDumpable("FrameAlignedHintCoalescer", coalescer);
+        return coalescer;
+    }
+
     @Provides
     @ElementsIntoSet
     static Set<NgaMessageHandler.AudioInfoListener> provideAudioInfoListeners(
@@ -503,8 +544,8 @@ public interface AssistGoogleModule {
     @Provides
     @ElementsIntoSet
     static Set<NgaMessageHandler.WarmingListener> provideWarmingListener(
-            AssistantWarmer assistantWarmer) {
-        return new HashSet<>(Collections.singletonList(assistantWarmer));
+            AssistantWarmupController assistantWarmupController) {
+        return new HashSet<>(Collections.singletonList(assistantWarmupController));
     }
 
     @Provides
@@ -16,10 +16,13 @@
 package com.google.android.systemui.assist
 
 import android.content.Context
+import android.database.ContentObserver
 import android.metrics.LogMaker
+import android.net.Uri
 import android.os.Bundle
 import android.os.Handler
 import android.os.RemoteException
+import android.os.UserHandle
 import android.provider.Settings
 import android.util.Log
 import android.view.IWindowManager
@@ -71,7 +74,8 @@ constructor(
     defaultUiController: DefaultUiController,
     private val googleDefaultUiController: GoogleDefaultUiController,
     private val windowManagerService: IWindowManager,
-    assistLogger: AssistLogger
+    assistLogger: AssistLogger,
+    private val assistantWarmupController: AssistantWarmupController
 ) :
     AssistManager(
         deviceProvisionedController,
@@ -90,20 +94,35 @@ constructor(
     private var navigationMode: Int
     private var squeezeSetUp = false
     private var uiController: UiController
-    private var checkAssistantStatus = true
     private val onProcessBundle = Runnable {
         assistantPresenceHandler.run(
             AssistantPresenceHandler::requestAssistantPresenceUpdate
         )
-        checkAssistantStatus = false
+    }
+
+    /**
+     * Keeps [squeezeSetUp] and the assistant presence current, so that invocation
+     * progress, which arrives every frame of the gesture animation, reads no settings.
+     */
+    private val settingsObserver = object : ContentObserver(uiHandler) {
+        override fun onChange(selfChange: Boolean, uri: Uri?) {
+            when (uri) {
+                SQUEEZE_SETUP_URI -> checkSqueezeGestureStatus()
+                else -> assistantPresenceHandler.run(
+                    AssistantPresenceHandler::requestAssistantPresenceUpdate
+                )
+            }
+        }
     }
 
     init {
         addOpaEnabledListener(opaEnabledDispatcher)
         keyguardUpdateMonitor.registerCallback(
             object : KeyguardUpdateMonitorCallback() {
-                override fun onUserSwitching(newUserId: Int) =
+                override fun onUserSwitching(newUserId: Int) {
                     opaEnabledReceiver.onUserSwitching(newUserId)
+                    refreshObservedState()
+                }
             }
         )
         uiController = googleDefaultUiController
@@ -112,6 +131,17 @@ constructor(
         assistantPresenceHandler.run {
             registerAssistantPresenceChangeListener(::onPresenceChanged)
         }
+        mContext.contentResolver.run {
+            for (uri in arrayOf(SQUEEZE_SETUP_URI, ASSISTANT_URI, VOICE_INTERACTION_SERVICE_URI)) {
+                registerContentObserver(uri, false, settingsObserver, UserHandle.USER_ALL)
+            }
+        }
+        refreshObservedState()
+    }
+
+    private fun refreshObservedState() {
+        checkSqueezeGestureStatus()
+        assistantPresenceHandler.run(AssistantPresenceHandler::requestAssistantPresenceUpdate)
     }
 
     private fun onPresenceChanged(isGoogleAssistant: Boolean, isNgaAssistant: Boolean) {
@@ -131,7 +161,6 @@ constructor(
             googleIsAssistant = isGoogleAssistant
             ngaIsAssistant = isNgaAssistant
         }
-        checkAssistantStatus = false
     }
 
     open fun shouldUseHomeButtonAnimations(): Boolean {
@@ -178,23 +207,7 @@ constructor(
     }
 
     override fun onInvocationProgress(type: Int, progress: Float) {
-        when (progress) {
-            0.0f,
-            1.0f -> {
-                checkAssistantStatus = true
-                when (type) {
-                    INVOCATION_TYPE_GESTURE -> checkSqueezeGestureStatus()
-                }
-            }
-        }
-        when {
-            checkAssistantStatus -> {
-                assistantPresenceHandler.run(
-                    AssistantPresenceHandler::requestAssistantPresenceUpdate
-                )
-                checkAssistantStatus = false
-            }
-        }
+        assistantWarmupController.onInvocationProgress(type, progress)
         when {
             type != INVOCATION_TYPE_GESTURE || squeezeSetUp -> {
                 uiController.run { onInvocationProgress(type, progress) }
@@ -203,7 +216,7 @@ constructor(
     }
 
     override fun onGestureCompletion(velocity: Float) {
-        checkAssistantStatus = true
+        assistantWarmupController.onInvocationComplete()
         uiController.run {
             onGestureCompletion(velocity.div(mContext.resources.displayMetrics.density))
         }
@@ -236,13 +249,20 @@ constructor(
     }
 
     private fun checkSqueezeGestureStatus() {
-        squeezeSetUp = Settings.Secure.getInt(
+        squeezeSetUp = Settings.Secure.getIntForUser(
             mContext.contentResolver,
-            "assist_gesture_setup_complete",
-            0
+            SQUEEZE_SETUP_COMPLETE,
+            0,
+            UserHandle.USER_CURRENT
         ) == 1
     }
 }
 
+private const val SQUEEZE_SETUP_COMPLETE = "assist_gesture_setup_complete"
+private val SQUEEZE_SETUP_URI = Settings.Secure.getUriFor(SQUEEZE_SETUP_COMPLETE)
+private val ASSISTANT_URI = Settings.Secure.getUriFor(Settings.Secure.ASSISTANT)
+private val VOICE_INTERACTION_SERVICE_URI =
+    Settings.Secure.getUriFor(Settings.Secure.VOICE_INTERACTION_SERVICE)
+
 private const val logTag = "AssistManagerGoogle"
 private const val SET_ASSISTANT_SHOW_GLOBAL_ACTIONS = "show_global_actions"
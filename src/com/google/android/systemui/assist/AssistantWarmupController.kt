@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.systemui.assist
+
+import android.content.Context
+import android.os.Handler
+import android.os.SystemClock
+import android.util.Log
+import com.android.systemui.Dumpable
+import com.android.systemui.assist.AssistManager
+import com.android.systemui.statusbar.commandline.Command
+import com.google.android.systemui.assist.uihints.NgaMessageHandler
+import java.io.PrintWriter
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Starts the Assistant connection while an invocation gesture is still in progress.
+ *
+ * The Assistant registers a warming request over NGA hints. The request is notified as
+ * soon as a corner swipe or squeeze crosses the warm-up threshold, once per gesture; if the
+ * gesture then falls back to zero it is cancelled again. A gesture that crosses again within
+ * [DEBOUNCE_MS] of a cancellation waits out the rest of that window first, so a hesitant
+ * user does not toggle the connection. Each warm-up counts as a hit when the invocation
+ * completes and as a miss when it aborts; invocations that complete before any warm-up are
+ * counted as cold.
+ *
+ * The threshold is the one the Assistant asks for unless overridden with
+ * `adb shell cmd statusbar assist-warmup threshold <0..1>`. Main thread only.
+ */
+class AssistantWarmupController(
+    private val context: Context,
+    private val mainHandler: Handler
+) : NgaMessageHandler.WarmingListener, Dumpable {
+    private var request: NgaMessageHandler.WarmingRequest? = null
+    private var thresholdOverride = Float.NaN
+
+    private var warmPending = false
+    private var warmed = false
+    private var warmedAtMillis = 0L
+    private var inGesture = false
+    private var cancelledAtMillis = 0L
+
+    private var warmups = 0
+    private var hits = 0
+    private var misses = 0
+    private var cold = 0
+    private var debounced = 0
+    private var lastLeadMillis = 0L
+
+    private val warm = Runnable {
+        warmPending = false
+        val request = request ?: return@Runnable
+        warmed = true
+        warmedAtMillis = SystemClock.uptimeMillis()
+        warmups++
+        request.notify(context, true)
+    }
+
+    override fun onWarmingRequest(request: NgaMessageHandler.WarmingRequest) {
+        this.request = request
+    }
+
+    private val threshold: Float
+        get() = when {
+            !thresholdOverride.isNaN() -> thresholdOverride
+            else -> request?.threshold ?: DEFAULT_THRESHOLD
+        }
+
+    fun onInvocationProgress(type: Int, progress: Float) {
+        if (type != AssistManager.INVOCATION_TYPE_GESTURE && type != SQUEEZE_INVOCATION_TYPE) {
+            return
+        }
+        when {
+            progress >= 1f -> onInvocationComplete()
+            progress <= 0f -> onInvocationAborted()
+            else -> {
+                inGesture = true
+                if (progress >= threshold && !warmPending && !warmed && request != null) {
+                    onThresholdCrossed()
+                }
+            }
+        }
+    }
+
+    private fun onThresholdCrossed() {
+        val sinceCancel = SystemClock.uptimeMillis() - cancelledAtMillis
+        if (sinceCancel >= DEBOUNCE_MS) {
+            warm.run()
+            return
+        }
+        warmPending = true
+        mainHandler.postDelayed(warm, DEBOUNCE_MS - sinceCancel)
+    }
+
+    /** The invocation completed, by progress or by fling. */
+    fun onInvocationComplete() {
+        if (warmPending) {
+            // Completed inside the debounce window; the invocation itself connects now.
+            mainHandler.removeCallbacks(warm)
+            warmPending = false
+            debounced++
+        }
+        if (warmed) {
+            warmed = false
+            hits++
+            lastLeadMillis = SystemClock.uptimeMillis() - warmedAtMillis
+            Log.d(TAG, "Warm-up hit, ${lastLeadMillis}ms ahead of invocation (${rates()})")
+        } else if (inGesture) {
+            cold++
+            Log.d(TAG, "Invocation completed before warm-up (${rates()})")
+        }
+        inGesture = false
+    }
+
+    private fun onInvocationAborted() {
+        inGesture = false
+        if (warmPending) {
+            mainHandler.removeCallbacks(warm)
+            warmPending = false
+            debounced++
+        }
+        if (warmed) {
+            warmed = false
+            misses++
+            cancelledAtMillis = SystemClock.uptimeMillis()
+            request?.notify(context, false)
+            Log.d(TAG, "Warm-up miss, gesture aborted (${rates()})")
+        }
+    }
+
+    private fun rates(): String {
+        val outcomes = hits + misses
+        val hitRate = if (outcomes == 0) 0 else hits * 100 / outcomes
+        val invocations = hits + cold
+        val warmRate = if (invocations == 0) 0 else hits * 100 / invocations
+        return "hits=$hits misses=$misses cold=$cold hitRate=$hitRate% warmRate=$warmRate%"
+    }
+
+    override fun dump(pw: PrintWriter, args: Array<String>) {
+        pw.println("  AssistantWarmupController:")
+        printState(pw, "    ")
+    }
+
+    private fun printState(pw: PrintWriter, prefix: String) {
+        pw.println("${prefix}registered=${request != null} threshold=$threshold " +
+            "overridden=${!thresholdOverride.isNaN()}")
+        pw.println("${prefix}warmups=$warmups debounced=$debounced ${rates()} " +
+            "lastLead=${lastLeadMillis}ms")
+    }
+
+    /** The `assist-warmup` command; it may run on any thread. */
+    fun newCommand(): Command = WarmupCommand()
+
+    private inner class WarmupCommand : Command {
+        override fun execute(pw: PrintWriter, args: List<String>) {
+            // The controller's state belongs to the main thread.
+            val done = CountDownLatch(1)
+            mainHandler.post {
+                run(pw, args)
+                done.countDown()
+            }
+            if (!done.await(COMMAND_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                pw.println("Main thread did not respond within ${COMMAND_TIMEOUT_MS}ms")
+            }
+        }
+
+        private fun run(pw: PrintWriter, args: List<String>) {
+            when (args.getOrNull(0)) {
+                null -> printState(pw, "")
+                "reset" -> {
+                    warmups = 0
+                    hits = 0
+                    misses = 0
+                    cold = 0
+                    debounced = 0
+                    lastLeadMillis = 0L
+                }
+                "threshold" -> {
+                    val value = args.getOrNull(1)
+                    val parsed = value?.toFloatOrNull()
+                    when {
+                        value == "default" -> thresholdOverride = Float.NaN
+                        parsed != null && parsed > 0f && parsed < 1f -> thresholdOverride = parsed
+                        else -> help(pw)
+                    }
+                }
+                else -> help(pw)
+            }
+        }
+
+        override fun help(pw: PrintWriter) {
+            pw.println("usage: $COMMAND_NAME [reset | threshold <value>|default]")
+            pw.println("  Prints warm-up hit and miss counts, or overrides the progress")
+            pw.println("  (exclusive 0..1) at which the Assistant connection is warmed")
+        }
+    }
+
+    companion object {
+        private const val TAG = "AssistantWarmup"
+        const val COMMAND_NAME = "assist-warmup"
+        private const val COMMAND_TIMEOUT_MS = 1000L
+
+        /** What a squeeze reports through AssistInvocationEffect. */
+        private const val SQUEEZE_INVOCATION_TYPE = 2
+
+        /** Same default as NgaMessageHandler.WarmingRequest. */
+        private const val DEFAULT_THRESHOLD = 0.1f
+
+        /** How long after a cancelled warm-up a re-crossing waits before warming again. */
+        private const val DEBOUNCE_MS = 50L
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.assist.uihints;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.systemui.navigationbar.NavigationModeController;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * {@link NgaMessageHandler} that dispatches through an {@link NgaDispatchTable} instead of
+ * walking its listener sets, since ui hints arrive at animation rate during a session.
+ */
+public class CompiledNgaMessageHandler extends NgaMessageHandler {
+    private final NgaDispatchTable mDispatchTable;
+    private final FrameAlignedHintCoalescer mHintCoalescer;
+
+    public CompiledNgaMessageHandler(
+            NgaUiController ngaUiController,
+            AssistantPresenceHandler assistantPresenceHandler,
+            NavigationModeController navigationModeController,
+            FrameAlignedHintCoalescer hintCoalescer,
+            Set<KeepAliveListener> keepAliveListeners,
+            Set<AudioInfoListener> audioInfoListeners,
+            Set<CardInfoListener> cardInfoListeners,
+            Set<ConfigInfoListener> configInfoListeners,
+            Set<EdgeLightsInfoListener> edgeLightsInfoListeners,
+            Set<TranscriptionInfoListener> transcriptionInfoListeners,
+            Set<GreetingInfoListener> greetingInfoListeners,
+            Set<ChipsInfoListener> chipsInfoListeners,
+            Set<ClearListener> clearListeners,
+            Set<StartActivityInfoListener> startActivityInfoListeners,
+            Set<KeyboardInfoListener> keyboardInfoListeners,
+            Set<ZerostateInfoListener> zerostateInfoListeners,
+            Set<GoBackListener> goBackListeners,
+            Set<SwipeListener> swipeListeners,
+            Set<TakeScreenshotListener> takeScreenshotListeners,
+            Set<WarmingListener> warmingListeners,
+            Set<NavBarVisibilityListener> navBarVisibilityListeners,
+            Handler handler) {
+        super(ngaUiController, assistantPresenceHandler, navigationModeController,
+                keepAliveListeners, audioInfoListeners, cardInfoListeners, configInfoListeners,
+                edgeLightsInfoListeners, transcriptionInfoListeners, greetingInfoListeners,
+                chipsInfoListeners, clearListeners, startActivityInfoListeners,
+                keyboardInfoListeners, zerostateInfoListeners, goBackListeners, swipeListeners,
+                takeScreenshotListeners, warmingListeners, navBarVisibilityListeners, handler);
+        mHintCoalescer = hintCoalescer;
+        mDispatchTable = new NgaDispatchTable(
+                keepAliveListeners, audioInfoListeners, cardInfoListeners, configInfoListeners,
+                edgeLightsInfoListeners, transcriptionInfoListeners, greetingInfoListeners,
+                chipsInfoListeners, clearListeners, startActivityInfoListeners,
+                keyboardInfoListeners, zerostateInfoListeners, goBackListeners, swipeListeners,
+                takeScreenshotListeners, warmingListeners, navBarVisibilityListeners);
+    }
+
+    @Override
+    public void processBundle(Bundle bundle, Runnable hintSentRunnable) {
+        if (Looper.myLooper() != mHandler.getLooper()) {
+            mHandler.post(() -> processBundle(bundle, hintSentRunnable));
+            return;
+        }
+        logBundle(bundle);
+        String action = bundle.getString("action", "");
+        if (action.isEmpty()) {
+            Log.w(TAG, "No action specified, ignoring");
+            return;
+        }
+        if (!"audio_info".equals(action) && !"card".equals(action)) {
+            // Audio and card state held for the next frame must land before anything else.
+            mHintCoalescer.flush();
+        }
+        boolean ngaIsAssistant = mAssistantPresenceHandler.isNgaAssistant();
+        boolean sysUiIsNgaUi = mAssistantPresenceHandler.isSysUiNgaUi();
+        switch (mDispatchTable.dispatch(
+                action, bundle, ngaIsAssistant, sysUiIsNgaUi, mIsGestureNav)) {
+            case NgaDispatchTable.HANDLED_UI_MESSAGE:
+                mNgaUiController.onUiMessageReceived();
+                break;
+            case NgaDispatchTable.NOT_HANDLED:
+                Log.w(TAG, String.format(
+                        "Invalid action \"%s\" for state:\n  NGA is Assistant = %b\n"
+                                + "  SysUI is NGA UI = %b",
+                        action, ngaIsAssistant, sysUiIsNgaUi));
+                break;
+        }
+        hintSentRunnable.run();
+    }
+
+    private static void logBundle(Bundle bundle) {
+        if (!VERBOSE || "audio_info".equals(bundle.get("action"))) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Contents of NGA Bundle:");
+        for (String key : bundle.keySet()) {
+            sb.append("\n   ").append(key).append(": ");
+            if ("text".equals(key)) {
+                sb.append("(").append(bundle.getString(key).length()).append(" characters)");
+            } else if ("chips".equals(key)) {
+                ArrayList<Bundle> chips = bundle.getParcelableArrayList(key);
+                if (chips != null) {
+                    for (Bundle chip : chips) {
+                        sb.append("\n      Chip:");
+                        for (String chipKey : chip.keySet()) {
+                            sb.append("\n         ").append(chipKey).append(": ")
+                                    .append(chip.get(chipKey));
+                        }
+                    }
+                }
+            } else {
+                sb.append(bundle.get(key));
+            }
+        }
+        Log.v(TAG, sb.toString());
+    }
+}
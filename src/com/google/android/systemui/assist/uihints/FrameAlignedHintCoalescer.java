@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.systemui.assist.uihints;
+
+import android.view.Choreographer;
+
+import com.android.systemui.Dumpable;
+
+import java.io.PrintWriter;
+import java.util.Set;
+
+/**
+ * Holds audio and card hints until the next frame and delivers only the latest of each to
+ * the overlay controllers, which would otherwise redraw for every hint while the user is
+ * speaking. Superseded hints are dropped and counted.
+ *
+ * A card is never merged with a pending card of the other visibility; the pending one is
+ * delivered first. Merged cards animate if any of them asked to. Hints that are not
+ * coalesced must not overtake the held state, so {@link #flush()} delivers it at once.
+ *
+ * Main thread only, like {@link NgaMessageHandler}.
+ */
+public class FrameAlignedHintCoalescer implements NgaMessageHandler.AudioInfoListener,
+        NgaMessageHandler.CardInfoListener, Choreographer.FrameCallback, Dumpable {
+    private final NgaMessageHandler.AudioInfoListener[] mAudioInfoListeners;
+    private final NgaMessageHandler.CardInfoListener[] mCardInfoListeners;
+    private Choreographer mChoreographer;
+    private boolean mFramePending;
+
+    private boolean mAudioPending;
+    private float mVolume;
+    private float mSpeechConfidence;
+
+    private boolean mCardPending;
+    private boolean mCardVisible;
+    private boolean mAnimateTransition;
+    private int mSysuiColor;
+    private boolean mCardForcesScrim;
+
+    private long mFrames;
+    private long mFlushes;
+    private long mAudioReceived;
+    private long mAudioCoalesced;
+    private long mCardReceived;
+    private long mCardCoalesced;
+
+    public FrameAlignedHintCoalescer(
+            Set<NgaMessageHandler.AudioInfoListener> audioInfoListeners,
+            Set<NgaMessageHandler.CardInfoListener> cardInfoListeners) {
+        mAudioInfoListeners =
+                audioInfoListeners.toArray(new NgaMessageHandler.AudioInfoListener[0]);
+        mCardInfoListeners =
+                cardInfoListeners.toArray(new NgaMessageHandler.CardInfoListener[0]);
+    }
+
+    @Override
+    public void onAudioInfo(float volume, float speechConfidence) {
+        mAudioReceived++;
+        if (mAudioPending) {
+            mAudioCoalesced++;
+        }
+        mAudioPending = true;
+        mVolume = volume;
+        mSpeechConfidence = speechConfidence;
+        scheduleFrame();
+    }
+
+    @Override
+    public void onCardInfo(boolean isVisible, boolean animateTransition, int sysuiColor,
+            boolean cardForcesScrim) {
+        mCardReceived++;
+        if (mCardPending && mCardVisible != isVisible) {
+            flush();
+        }
+        if (mCardPending) {
+            mCardCoalesced++;
+            mAnimateTransition |= animateTransition;
+        } else {
+            mAnimateTransition = animateTransition;
+        }
+        mCardPending = true;
+        mCardVisible = isVisible;
+        mSysuiColor = sysuiColor;
+        mCardForcesScrim = cardForcesScrim;
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (mFramePending) {
+            return;
+        }
+        if (mChoreographer == null) {
+            mChoreographer = Choreographer.getInstance();
+        }
+        mFramePending = true;
+        mChoreographer.postFrameCallback(this);
+    }
+
+    /** Delivers any held audio and card state now instead of on the next frame. */
+    public void flush() {
+        if (!mFramePending) {
+            return;
+        }
+        mChoreographer.removeFrameCallback(this);
+        mFramePending = false;
+        mFlushes++;
+        deliverPending();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFramePending = false;
+        mFrames++;
+        deliverPending();
+    }
+
+    private void deliverPending() {
+        // Card state first, so the level lands on the glow and scrim it belongs to.
+        if (mCardPending) {
+            mCardPending = false;
+            for (NgaMessageHandler.CardInfoListener listener : mCardInfoListeners) {
+                listener.onCardInfo(
+                        mCardVisible, mAnimateTransition, mSysuiColor, mCardForcesScrim);
+            }
+        }
+        if (mAudioPending) {
+            mAudioPending = false;
+            for (NgaMessageHandler.AudioInfoListener listener : mAudioInfoListeners) {
+                listener.onAudioInfo(mVolume, mSpeechConfidence);
+            }
+        }
+    }
+
+    @Override
+    public void dump(PrintWriter pw, String[] args) {
+        pw.println("FrameAlignedHintCoalescer:");
+        pw.println("  frames=" + mFrames + " flushes=" + mFlushes);
+        pw.println("  audio: received=" + mAudioReceived + " coalesced=" + mAudioCoalesced);
+        pw.println("  card: received=" + mCardReceived + " coalesced=" + mCardCoalesced);
+    }
+}
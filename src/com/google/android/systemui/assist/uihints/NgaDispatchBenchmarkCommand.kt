@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.assist.uihints
+
+import android.content.Context
+import android.os.Bundle
+import android.os.Debug
+import android.os.Handler
+import android.os.SystemClock
+import com.android.systemui.navigationbar.NavigationModeController
+import com.android.systemui.statusbar.commandline.Command
+import java.io.PrintWriter
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * `adb shell cmd statusbar nga-dispatch-bench [iterations]`
+ *
+ * Replays a synthetic stream of the hints an active session sends at animation rate (audio
+ * info, edge lights, transcription, cards and keep alives) into counting listeners, through
+ * a prebuilt [NgaMessageHandler] and a [CompiledNgaMessageHandler] built from the same
+ * listener sets. Both run on the main looper, as they do for real hints, and report the
+ * live [NgaUiController] as SysUI's NGA UI. Prints p50/p99 per message and bytes
+ * allocated per message for both.
+ *
+ * The handlers register with [NavigationModeController] once, so a single instance is
+ * meant to be reused across runs.
+ */
+class NgaDispatchBenchmarkCommand(
+    context: Context,
+    ngaUiController: NgaUiController,
+    navigationModeController: NavigationModeController,
+    private val mainHandler: Handler
+) : Command {
+    private var calls = 0L
+
+    private val keepAlive = hashSetOf(NgaMessageHandler.KeepAliveListener { calls++ })
+    private val audioInfo = hashSetOf(
+        NgaMessageHandler.AudioInfoListener { _, _ -> calls++ },
+        NgaMessageHandler.AudioInfoListener { _, _ -> calls++ }
+    )
+    private val cardInfo = (0 until 4).mapTo(HashSet()) {
+        NgaMessageHandler.CardInfoListener { _, _, _, _ -> calls++ }
+    }
+    private val edgeLights = hashSetOf(
+        NgaMessageHandler.EdgeLightsInfoListener { _, _ -> calls++ },
+        NgaMessageHandler.EdgeLightsInfoListener { _, _ -> calls++ }
+    )
+    private val transcription =
+        hashSetOf(NgaMessageHandler.TranscriptionInfoListener { _, _, _ -> calls++ })
+
+    private val presence = object : AssistantPresenceHandler(context, null) {
+        override fun isNgaAssistant(): Boolean = true
+
+        override fun isSysUiNgaUi(): Boolean = true
+    }
+
+    private val prebuilt = NgaMessageHandler(
+        ngaUiController, presence, navigationModeController, keepAlive, audioInfo, cardInfo,
+        emptySet(), edgeLights, transcription, emptySet(), emptySet(), emptySet(), emptySet(),
+        emptySet(), emptySet(), emptySet(), emptySet(), emptySet(), emptySet(), emptySet(),
+        mainHandler
+    )
+    private val compiled = CompiledNgaMessageHandler(
+        ngaUiController, presence, navigationModeController,
+        FrameAlignedHintCoalescer(emptySet(), emptySet()), keepAlive, audioInfo, cardInfo,
+        emptySet(), edgeLights, transcription, emptySet(), emptySet(), emptySet(), emptySet(),
+        emptySet(), emptySet(), emptySet(), emptySet(), emptySet(), emptySet(), emptySet(),
+        mainHandler
+    )
+    private val hintSent = Runnable {}
+
+    private val stream = arrayOf(
+        hint("audio_info") { putFloat("volume", 0.4f); putFloat("speech_confidence", 0.8f) },
+        hint("edge_lights") { putString("state", "FULL_LISTENING"); putBoolean("listening", true) },
+        hint("audio_info") { putFloat("volume", 0.6f); putFloat("speech_confidence", 0.9f) },
+        hint("transcription") { putString("text", "what's the weather"); putInt("text_color", 0) },
+        hint("card") { putBoolean("is_visible", true); putInt("sysui_color", 0) },
+        hint("keep_alive") {}
+    )
+
+    override fun execute(pw: PrintWriter, args: List<String>) {
+        val iterations = args.getOrNull(0)?.toIntOrNull() ?: DEFAULT_ITERATIONS
+        if (iterations <= 0) {
+            help(pw)
+            return
+        }
+        // Hints are dispatched on the main looper; measuring anywhere else would only time
+        // the post to it.
+        val done = CountDownLatch(1)
+        mainHandler.post {
+            measure(pw, "prebuilt", iterations, prebuilt)
+            measure(pw, "compiled", iterations, compiled)
+            pw.println("  listener calls: $calls")
+            done.countDown()
+        }
+        if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            pw.println("Benchmark still running after ${TIMEOUT_SECONDS}s")
+        }
+    }
+
+    override fun help(pw: PrintWriter) {
+        pw.println("usage: $NAME [iterations]")
+        pw.println("  iterations  messages per measurement (default $DEFAULT_ITERATIONS)")
+    }
+
+    @Suppress("DEPRECATION")
+    private fun measure(
+        pw: PrintWriter,
+        name: String,
+        iterations: Int,
+        handler: NgaMessageHandler
+    ) {
+        repeat(WARM_UP_ITERATIONS) { handler.processBundle(stream[it % stream.size], hintSent) }
+        val samples = LongArray(iterations)
+        Debug.startAllocCounting()
+        Debug.resetThreadAllocSize()
+        for (i in samples.indices) {
+            val start = SystemClock.elapsedRealtimeNanos()
+            handler.processBundle(stream[i % stream.size], hintSent)
+            samples[i] = SystemClock.elapsedRealtimeNanos() - start
+        }
+        val allocated = Debug.getThreadAllocSize()
+        Debug.stopAllocCounting()
+        samples.sort()
+        pw.println("  $name: p50=${percentile(samples, 50)}ns " +
+            "p99=${percentile(samples, 99)}ns alloc=${allocated / iterations}B/message")
+    }
+
+    private fun hint(action: String, extras: Bundle.() -> Unit): Bundle =
+        Bundle().apply {
+            putString("action", action)
+            extras()
+        }
+
+    private fun percentile(sorted: LongArray, percent: Int): Long =
+        sorted[((sorted.size - 1) * percent) / 100]
+
+    companion object {
+        const val NAME = "nga-dispatch-bench"
+        private const val DEFAULT_ITERATIONS = 10000
+        private const val WARM_UP_ITERATIONS = 500
+        private const val TIMEOUT_SECONDS = 30L
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.systemui.assist.uihints;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * The NGA ui hint fan-out of {@link NgaMessageHandler}, compiled once from its listener sets.
+ *
+ * Every action resolves through a single string switch to an id that carries the assistant
+ * state it needs, and each id fans out over a flat listener array, so dispatching a message
+ * allocates nothing beyond what the listeners themselves do.
+ */
+public final class NgaDispatchTable {
+    /** The action is unknown or not available in the current state. */
+    public static final int NOT_HANDLED = 0;
+    /** The action was dispatched. */
+    public static final int HANDLED = 1;
+    /** The action was dispatched and counts as a message to the NGA UI. */
+    public static final int HANDLED_UI_MESSAGE = 2;
+
+    private static final int STATE_ALWAYS = 0;
+    private static final int STATE_NGA = 1 << 8;
+    private static final int STATE_SYSUI_NGA_UI = 2 << 8;
+    private static final int STATE_MASK = 3 << 8;
+
+    private static final int UNKNOWN = STATE_SYSUI_NGA_UI;
+    private static final int CONFIG = STATE_ALWAYS | 1;
+    private static final int GESTURE_NAV_BAR_VISIBLE = STATE_ALWAYS | 2;
+    private static final int CARD = STATE_NGA | 1;
+    private static final int SWIPE_ACTION = STATE_NGA | 2;
+    private static final int GO_BACK = STATE_NGA | 3;
+    private static final int START_ACTIVITY = STATE_NGA | 4;
+    private static final int TAKE_SCREENSHOT = STATE_NGA | 5;
+    private static final int WARMING = STATE_NGA | 6;
+    private static final int SHOW_KEYBOARD = STATE_SYSUI_NGA_UI | 1;
+    private static final int SHOW_ZEROSTATE = STATE_SYSUI_NGA_UI | 2;
+    private static final int HIDE_KEYBOARD = STATE_SYSUI_NGA_UI | 3;
+    private static final int TRANSCRIPTION = STATE_SYSUI_NGA_UI | 4;
+    private static final int HIDE_ZEROSTATE = STATE_SYSUI_NGA_UI | 5;
+    private static final int CHIPS = STATE_SYSUI_NGA_UI | 6;
+    private static final int CLEAR = STATE_SYSUI_NGA_UI | 7;
+    private static final int GREETING = STATE_SYSUI_NGA_UI | 8;
+    private static final int EDGE_LIGHTS = STATE_SYSUI_NGA_UI | 9;
+    private static final int AUDIO_INFO = STATE_SYSUI_NGA_UI | 10;
+    private static final int KEEP_ALIVE = STATE_SYSUI_NGA_UI | 11;
+
+    private final NgaMessageHandler.KeepAliveListener[] mKeepAliveListeners;
+    private final NgaMessageHandler.AudioInfoListener[] mAudioInfoListeners;
+    private final NgaMessageHandler.CardInfoListener[] mCardInfoListeners;
+    private final NgaMessageHandler.ConfigInfoListener[] mConfigInfoListeners;
+    private final NgaMessageHandler.EdgeLightsInfoListener[] mEdgeLightsInfoListeners;
+    private final NgaMessageHandler.TranscriptionInfoListener[] mTranscriptionInfoListeners;
+    private final NgaMessageHandler.GreetingInfoListener[] mGreetingInfoListeners;
+    private final NgaMessageHandler.ChipsInfoListener[] mChipsInfoListeners;
+    private final NgaMessageHandler.ClearListener[] mClearListeners;
+    private final NgaMessageHandler.StartActivityInfoListener[] mStartActivityInfoListeners;
+    private final NgaMessageHandler.KeyboardInfoListener[] mKeyboardInfoListeners;
+    private final NgaMessageHandler.ZerostateInfoListener[] mZerostateInfoListeners;
+    private final NgaMessageHandler.GoBackListener[] mGoBackListeners;
+    private final NgaMessageHandler.SwipeListener[] mSwipeListeners;
+    private final NgaMessageHandler.TakeScreenshotListener[] mTakeScreenshotListeners;
+    private final NgaMessageHandler.WarmingListener[] mWarmingListeners;
+    private final NgaMessageHandler.NavBarVisibilityListener[] mNavBarVisibilityListeners;
+
+    public NgaDispatchTable(
+            Set<NgaMessageHandler.KeepAliveListener> keepAliveListeners,
+            Set<NgaMessageHandler.AudioInfoListener> audioInfoListeners,
+            Set<NgaMessageHandler.CardInfoListener> cardInfoListeners,
+            Set<NgaMessageHandler.ConfigInfoListener> configInfoListeners,
+            Set<NgaMessageHandler.EdgeLightsInfoListener> edgeLightsInfoListeners,
+            Set<NgaMessageHandler.TranscriptionInfoListener> transcriptionInfoListeners,
+            Set<NgaMessageHandler.GreetingInfoListener> greetingInfoListeners,
+            Set<NgaMessageHandler.ChipsInfoListener> chipsInfoListeners,
+            Set<NgaMessageHandler.ClearListener> clearListeners,
+            Set<NgaMessageHandler.StartActivityInfoListener> startActivityInfoListeners,
+            Set<NgaMessageHandler.KeyboardInfoListener> keyboardInfoListeners,
+            Set<NgaMessageHandler.ZerostateInfoListener> zerostateInfoListeners,
+            Set<NgaMessageHandler.GoBackListener> goBackListeners,
+            Set<NgaMessageHandler.SwipeListener> swipeListeners,
+            Set<NgaMessageHandler.TakeScreenshotListener> takeScreenshotListeners,
+            Set<NgaMessageHandler.WarmingListener> warmingListeners,
+            Set<NgaMessageHandler.NavBarVisibilityListener> navBarVisibilityListeners) {
+        mKeepAliveListeners =
+                keepAliveListeners.toArray(new NgaMessageHandler.KeepAliveListener[0]);
+        mAudioInfoListeners =
+                audioInfoListeners.toArray(new NgaMessageHandler.AudioInfoListener[0]);
+        mCardInfoListeners =
+                cardInfoListeners.toArray(new NgaMessageHandler.CardInfoListener[0]);
+        mConfigInfoListeners =
+                configInfoListeners.toArray(new NgaMessageHandler.ConfigInfoListener[0]);
+        mEdgeLightsInfoListeners =
+                edgeLightsInfoListeners.toArray(new NgaMessageHandler.EdgeLightsInfoListener[0]);
+        mTranscriptionInfoListeners = transcriptionInfoListeners.toArray(
+                new NgaMessageHandler.TranscriptionInfoListener[0]);
+        mGreetingInfoListeners =
+                greetingInfoListeners.toArray(new NgaMessageHandler.GreetingInfoListener[0]);
+        mChipsInfoListeners =
+                chipsInfoListeners.toArray(new NgaMessageHandler.ChipsInfoListener[0]);
+        mClearListeners = clearListeners.toArray(new NgaMessageHandler.ClearListener[0]);
+        mStartActivityInfoListeners = startActivityInfoListeners.toArray(
+                new NgaMessageHandler.StartActivityInfoListener[0]);
+        mKeyboardInfoListeners =
+                keyboardInfoListeners.toArray(new NgaMessageHandler.KeyboardInfoListener[0]);
+        mZerostateInfoListeners =
+                zerostateInfoListeners.toArray(new NgaMessageHandler.ZerostateInfoListener[0]);
+        mGoBackListeners = goBackListeners.toArray(new NgaMessageHandler.GoBackListener[0]);
+        mSwipeListeners = swipeListeners.toArray(new NgaMessageHandler.SwipeListener[0]);
+        mTakeScreenshotListeners =
+                takeScreenshotListeners.toArray(new NgaMessageHandler.TakeScreenshotListener[0]);
+        mWarmingListeners = warmingListeners.toArray(new NgaMessageHandler.WarmingListener[0]);
+        mNavBarVisibilityListeners = navBarVisibilityListeners.toArray(
+                new NgaMessageHandler.NavBarVisibilityListener[0]);
+    }
+
+    private static int resolve(String action) {
+        switch (action) {
+            case "config": return CONFIG;
+            case "gesture_nav_bar_visible": return GESTURE_NAV_BAR_VISIBLE;
+            case "card": return CARD;
+            case "swipe_action": return SWIPE_ACTION;
+            case "go_back": return GO_BACK;
+            case "start_activity": return START_ACTIVITY;
+            case "take_screenshot": return TAKE_SCREENSHOT;
+            case "warming": return WARMING;
+            case "show_keyboard": return SHOW_KEYBOARD;
+            case "show_zerostate": return SHOW_ZEROSTATE;
+            case "hide_keyboard": return HIDE_KEYBOARD;
+            case "transcription": return TRANSCRIPTION;
+            case "hide_zerostate": return HIDE_ZEROSTATE;
+            case "chips": return CHIPS;
+            case "clear": return CLEAR;
+            case "greeting": return GREETING;
+            case "edge_lights": return EDGE_LIGHTS;
+            case "audio_info": return AUDIO_INFO;
+            case "keep_alive": return KEEP_ALIVE;
+            default: return UNKNOWN;
+        }
+    }
+
+    /**
+     * Dispatches {@code action} if it is available in the given assistant state.
+     *
+     * @return {@link #NOT_HANDLED}, {@link #HANDLED} or {@link #HANDLED_UI_MESSAGE}
+     */
+    public int dispatch(String action, Bundle bundle, boolean ngaIsAssistant,
+            boolean sysUiIsNgaUi, boolean gestureNav) {
+        int id = resolve(action);
+        switch (id & STATE_MASK) {
+            case STATE_NGA:
+                if (!ngaIsAssistant) {
+                    return NOT_HANDLED;
+                }
+                break;
+            case STATE_SYSUI_NGA_UI:
+                if (!ngaIsAssistant || !sysUiIsNgaUi) {
+                    return NOT_HANDLED;
+                }
+                // Anything that reaches the NGA UI keeps the session alive, known or not.
+                for (NgaMessageHandler.KeepAliveListener listener : mKeepAliveListeners) {
+                    listener.onKeepAlive(action);
+                }
+                break;
+        }
+        switch (id) {
+            case CONFIG: {
+                NgaMessageHandler.ConfigInfo configInfo = new NgaMessageHandler.ConfigInfo(bundle);
+                for (NgaMessageHandler.ConfigInfoListener listener : mConfigInfoListeners) {
+                    listener.onConfigInfo(configInfo);
+                }
+                return HANDLED_UI_MESSAGE;
+            }
+            case GESTURE_NAV_BAR_VISIBLE: {
+                if (gestureNav) {
+                    boolean visible = bundle.getBoolean("visible", true);
+                    for (NgaMessageHandler.NavBarVisibilityListener listener
+                            : mNavBarVisibilityListeners) {
+                        listener.onVisibleRequest(visible);
+                    }
+                }
+                return HANDLED;
+            }
+            case CARD: {
+                boolean isVisible = bundle.getBoolean("is_visible");
+                int sysuiColor = bundle.getInt("sysui_color", 0);
+                boolean animateTransition = bundle.getBoolean("animate_transition", true);
+                boolean cardForcesScrim = bundle.getBoolean("card_forces_scrim");
+                for (NgaMessageHandler.CardInfoListener listener : mCardInfoListeners) {
+                    listener.onCardInfo(isVisible, animateTransition, sysuiColor, cardForcesScrim);
+                }
+                return HANDLED;
+            }
+            case SWIPE_ACTION:
+                for (NgaMessageHandler.SwipeListener listener : mSwipeListeners) {
+                    listener.onSwipe(bundle);
+                }
+                return HANDLED;
+            case GO_BACK:
+                for (NgaMessageHandler.GoBackListener listener : mGoBackListeners) {
+                    listener.onGoBack();
+                }
+                return HANDLED;
+            case START_ACTIVITY: {
+                Intent intent = bundle.getParcelable("intent");
+                boolean dismissShade = bundle.getBoolean("dismiss_shade");
+                for (NgaMessageHandler.StartActivityInfoListener listener
+                        : mStartActivityInfoListeners) {
+                    listener.onStartActivityInfo(intent, dismissShade);
+                }
+                return HANDLED;
+            }
+            case TAKE_SCREENSHOT: {
+                PendingIntent onFinish = bundle.getParcelable("on_finish");
+                for (NgaMessageHandler.TakeScreenshotListener listener
+                        : mTakeScreenshotListeners) {
+                    listener.onTakeScreenshot(onFinish);
+                }
+                return HANDLED;
+            }
+            case WARMING: {
+                NgaMessageHandler.WarmingRequest request = new NgaMessageHandler.WarmingRequest(
+                        bundle.getParcelable("intent"), bundle.getFloat("threshold", 0.1f));
+                for (NgaMessageHandler.WarmingListener listener : mWarmingListeners) {
+                    listener.onWarmingRequest(request);
+                }
+                return HANDLED;
+            }
+            case SHOW_KEYBOARD: {
+                PendingIntent tapAction = bundle.getParcelable("tap_action");
+                for (NgaMessageHandler.KeyboardInfoListener listener : mKeyboardInfoListeners) {
+                    listener.onShowKeyboard(tapAction);
+                }
+                return HANDLED_UI_MESSAGE;
+            }
+            case SHOW_ZEROSTATE: {
+                PendingIntent tapAction = bundle.getParcelable("tap_action");
+                for (NgaMessageHandler.ZerostateInfoListener listener : mZerostateInfoListeners) {
+                    listener.onShowZerostate(tapAction);
+                }
+                return HANDLED_UI_MESSAGE;
+            }
+            case HIDE_KEYBOARD:
+                for (NgaMessageHandler.KeyboardInfoListener listener : mKeyboardInfoListeners) {
+                    listener.onHideKeyboard();
+                }
+                return HANDLED_UI_MESSAGE;
+            case TRANSCRIPTION: {
+                String text = bundle.getString("text");
+                PendingIntent tapAction = bundle.getParcelable("tap_action");
+                int textColor = bundle.getInt("text_color");
+                for (NgaMessageHandler.TranscriptionInfoListener listener
+                        : mTranscriptionInfoListeners) {
+                    listener.onTranscriptionInfo(text, tapAction, textColor);
+                }
+                return HANDLED_UI_MESSAGE;
+            }
+            case HIDE_ZEROSTATE:
+                for (NgaMessageHandler.ZerostateInfoListener listener : mZerostateInfoListeners) {
+                    listener.onHideZerostate();
+                }
+                return HANDLED_UI_MESSAGE;
+            case CHIPS: {
+                ArrayList<Bundle> chips = bundle.getParcelableArrayList("chips");
+                for (NgaMessageHandler.ChipsInfoListener listener : mChipsInfoListeners) {
+                    listener.onChipsInfo(chips);
+                }
+                return HANDLED_UI_MESSAGE;
+            }
+            case CLEAR: {
+                boolean showAnimation = bundle.getBoolean("show_animation", true);
+                for (NgaMessageHandler.ClearListener listener : mClearListeners) {
+                    listener.onClear(showAnimation);
+                }
+                return HANDLED_UI_MESSAGE;
+            }
+            case GREETING: {
+                String text = bundle.getString("text");
+                PendingIntent tapAction = bundle.getParcelable("tap_action");
+                for (NgaMessageHandler.GreetingInfoListener listener : mGreetingInfoListeners) {
+                    listener.onGreetingInfo(text, tapAction);
+                }
+                return HANDLED_UI_MESSAGE;
+            }
+            case EDGE_LIGHTS: {
+                String state = bundle.getString("state", "");
+                boolean listening = bundle.getBoolean("listening");
+                for (NgaMessageHandler.EdgeLightsInfoListener listener
+                        : mEdgeLightsInfoListeners) {
+                    listener.onEdgeLightsInfo(state, listening);
+                }
+                return HANDLED_UI_MESSAGE;
+            }
+            case AUDIO_INFO: {
+                float volume = bundle.getFloat("volume");
+                float speechConfidence = bundle.getFloat("speech_confidence");
+                for (NgaMessageHandler.AudioInfoListener listener : mAudioInfoListeners) {
+                    listener.onAudioInfo(volume, speechConfidence);
+                }
+                return HANDLED_UI_MESSAGE;
+            }
+            case KEEP_ALIVE:
+                return HANDLED_UI_MESSAGE;
+            default:
+                return NOT_HANDLED;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.google.android.systemui.assist.uihints;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Rect;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+
+import com.android.systemui.Dumpable;
+import com.android.systemui.statusbar.policy.ConfigurationController;
+
+import java.io.PrintWriter;
+
+/**
+ * Keeps the detached Assistant overlay measured and laid out, so the first frame after
+ * {@link OverlayUiHost} attaches it does not pay for a cold pass over the whole hierarchy.
+ *
+ * The overlay controllers inflate into the host when they are created; this runs the
+ * measure and layout once the main thread goes idle, and again after any configuration or
+ * theme change, once the controllers have rebuilt their views. While the overlay is showing
+ * the window keeps it laid out, so a pass waits for an idle moment after it is hidden.
+ */
+public class OverlayWarmer implements MessageQueue.IdleHandler,
+        ConfigurationController.ConfigurationListener, Dumpable {
+    private static final String TRACE_SECTION = "OverlayWarmer#warm";
+
+    private final OverlayUiHost mUiHost;
+    private final WindowManager mWindowManager;
+    private boolean mWarmupPending;
+    private boolean mDeferred;
+    private boolean mWarm;
+
+    private int mWarmups;
+    private int mDeferredWhileShowing;
+    private long mLastWarmupNanos;
+
+    public OverlayWarmer(
+            Context context,
+            OverlayUiHost uiHost,
+            ConfigurationController configurationController) {
+        mUiHost = uiHost;
+        mWindowManager = context.getSystemService(WindowManager.class);
+        configurationController.addCallback(this);
+        scheduleWarmup();
+    }
+
+    @Override
+    public void onConfigChanged(Configuration newConfig) {
+        scheduleWarmup();
+    }
+
+    @Override
+    public void onThemeChanged() {
+        scheduleWarmup();
+    }
+
+    private void scheduleWarmup() {
+        mWarm = false;
+        if (!mWarmupPending) {
+            mWarmupPending = true;
+            Looper.getMainLooper().getQueue().addIdleHandler(this);
+        }
+    }
+
+    @Override
+    public boolean queueIdle() {
+        if (mUiHost.mAttached) {
+            if (!mDeferred) {
+                mDeferred = true;
+                mDeferredWhileShowing++;
+            }
+            // Stay registered and retry at a later idle.
+            return true;
+        }
+        mWarmupPending = false;
+        mDeferred = false;
+        Trace.beginSection(TRACE_SECTION);
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            ViewGroup root = mUiHost.getParent();
+            Rect bounds = mWindowManager.getMaximumWindowMetrics().getBounds();
+            // The window is MATCH_PARENT wide and WRAP_CONTENT tall at the bottom of the
+            // display, so measure it the way ViewRootImpl#measureHierarchy would.
+            root.measure(
+                    View.MeasureSpec.makeMeasureSpec(bounds.width(), View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(bounds.height(), View.MeasureSpec.AT_MOST));
+            root.layout(0, 0, root.getMeasuredWidth(), root.getMeasuredHeight());
+        } finally {
+            Trace.endSection();
+        }
+        mLastWarmupNanos = SystemClock.elapsedRealtimeNanos() - start;
+        mWarmups++;
+        mWarm = true;
+        return false;
+    }
+
+    @Override
+    public void dump(PrintWriter pw, String[] args) {
+        pw.println("OverlayWarmer:");
+        pw.println("  warm=" + mWarm + " pending=" + mWarmupPending);
+        pw.println("  warmups=" + mWarmups + " deferredWhileShowing=" + mDeferredWhileShowing
+                + " lastWarmup=" + mLastWarmupNanos / 1000 + "us");
+    }
+}
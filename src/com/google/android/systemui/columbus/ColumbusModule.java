@@ -22,12 +22,11 @@ import android.app.KeyguardManager;
 import android.content.Context;
 import android.content.pm.LauncherApps;
 import android.media.AudioManager;
+import android.os.Build;
 import android.os.Handler;
 import android.os.PowerManager;
 import android.os.UserManager;
 import android.os.Vibrator;
-import android.telecom.TelecomManager;
-import android.telephony.TelephonyManager;
 import android.util.Log;
 
 import com.android.internal.logging.UiEventLogger;
@@ -46,12 +45,12 @@ import com.android.systemui.statusbar.NotificationShadeWindowController;
 import com.android.systemui.statusbar.commandline.CommandRegistry;
 import com.android.systemui.statusbar.phone.CentralSurfaces;
 import com.android.systemui.statusbar.phone.StatusBarKeyguardViewManager;
+import com.android.systemui.statusbar.policy.BatteryController;
 import com.android.systemui.statusbar.policy.DeviceProvisionedController;
 import com.android.systemui.statusbar.policy.FlashlightController;
-import com.android.systemui.statusbar.policy.HeadsUpManager;
 import com.android.systemui.statusbar.policy.KeyguardStateController;
-import com.android.systemui.telephony.TelephonyListenerManager;
 import com.android.systemui.tuner.TunerService;
+import com.android.systemui.util.concurrency.DelayableExecutor;
 import com.android.systemui.util.sensors.ProximitySensor;
 import com.google.android.systemui.columbus.ColumbusContentObserver;
 import com.google.android.systemui.columbus.ColumbusService;
@@ -60,30 +59,32 @@ import com.google.android.systemui.columbus.ColumbusSettings;
 import com.google.android.systemui.columbus.ColumbusStructuredDataManager;
 import com.google.android.systemui.columbus.ContentResolverWrapper;
 import com.google.android.systemui.columbus.ColumbusTargetRequestService;
+import com.google.android.systemui.columbus.GestureLatencyTracer;
 import com.google.android.systemui.columbus.PowerManagerWrapper;
 import com.google.android.systemui.columbus.actions.Action;
 import com.google.android.systemui.columbus.actions.DismissTimer;
-import com.google.android.systemui.columbus.actions.LaunchApp;
+import com.google.android.systemui.columbus.actions.IndexedLaunchApp;
 import com.google.android.systemui.columbus.actions.LaunchOpa;
 import com.google.android.systemui.columbus.actions.LaunchOverview;
+import com.google.android.systemui.columbus.actions.LazyUserSelectedAction;
 import com.google.android.systemui.columbus.actions.ManageMedia;
 import com.google.android.systemui.columbus.actions.OpenNotificationShade;
 import com.google.android.systemui.columbus.actions.SettingsAction;
-import com.google.android.systemui.columbus.actions.SilenceCall;
+import com.google.android.systemui.columbus.actions.SilenceRingingCall;
 import com.google.android.systemui.columbus.actions.SnoozeAlarm;
 import com.google.android.systemui.columbus.actions.TakeScreenshot;
 import com.google.android.systemui.columbus.actions.ToggleFlashlight;
-import com.google.android.systemui.columbus.actions.UnpinNotifications;
+import com.google.android.systemui.columbus.actions.UnpinPinnedHeadsUp;
 import com.google.android.systemui.columbus.actions.UserAction;
-import com.google.android.systemui.columbus.actions.UserSelectedAction;
 import com.google.android.systemui.columbus.feedback.AssistInvocationEffect;
 import com.google.android.systemui.columbus.feedback.FeedbackEffect;
 import com.google.android.systemui.columbus.feedback.HapticClick;
 import com.google.android.systemui.columbus.feedback.UserActivity;
+import com.google.android.systemui.columbus.gates.CallStateGate;
 import com.google.android.systemui.columbus.gates.CameraVisibility;
-import com.google.android.systemui.columbus.gates.ChargingState;
 import com.google.android.systemui.columbus.gates.FlagEnabled;
 import com.google.android.systemui.columbus.gates.Gate;
+import com.google.android.systemui.columbus.gates.GateAggregator;
 import com.google.android.systemui.columbus.gates.KeyguardProximity;
 import com.google.android.systemui.columbus.gates.KeyguardVisibility;
 import com.google.android.systemui.columbus.gates.PowerSaveState;
@@ -92,21 +93,26 @@ import com.google.android.systemui.columbus.gates.Proximity;
 import com.google.android.systemui.columbus.gates.ScreenTouch;
 import com.google.android.systemui.columbus.gates.SetupWizard;
 import com.google.android.systemui.columbus.gates.SilenceAlertsDisabled;
-import com.google.android.systemui.columbus.gates.SystemKeyPress;
-import com.google.android.systemui.columbus.gates.TelephonyActivity;
-import com.google.android.systemui.columbus.gates.UsbState;
+import com.google.android.systemui.columbus.gates.SoftGateTimer;
 import com.google.android.systemui.columbus.gates.VrMode;
-import com.google.android.systemui.columbus.sensors.CHREGestureSensor;
+import com.google.android.systemui.columbus.sensors.ApGestureSensor;
+import com.google.android.systemui.columbus.sensors.ContextHubGestureSensor;
 import com.google.android.systemui.columbus.sensors.GestureController;
 import com.google.android.systemui.columbus.sensors.GestureSensor;
 import com.google.android.systemui.columbus.sensors.GestureSensorImpl;
+import com.google.android.systemui.columbus.sensors.NanoappEventTelemetry;
+import com.google.android.systemui.columbus.sensors.ReplayGestureSensor;
+import com.google.android.systemui.columbus.sensors.TapClassifierEngine;
+import com.google.android.systemui.columbus.sensors.TracingGestureController;
 import com.google.android.systemui.columbus.sensors.config.Adjustment;
-import com.google.android.systemui.columbus.sensors.config.GestureConfiguration;
+import com.google.android.systemui.columbus.sensors.config.ChargingAdjustment;
 import com.google.android.systemui.columbus.sensors.config.LowSensitivitySettingAdjustment;
+import com.google.android.systemui.columbus.sensors.config.SensitivityPipeline;
 import com.google.android.systemui.columbus.sensors.config.SensorConfiguration;
+import com.google.android.systemui.gesture.CallStateSource;
+import com.google.android.systemui.gesture.HeadsUpSource;
 
 import java.util.*;
-import java.util.Optional;
 import java.util.concurrent.Executor;
 
 import javax.inject.Named;
@@ -139,10 +145,15 @@ public interface ColumbusModule {
             Set<FeedbackEffect> effects,
             @Named(COLUMBUS_GATES) Set<Gate> gates,
             GestureController gestureController,
-            PowerManagerWrapper powerManager) {
+            PowerManagerWrapper powerManager,
+            GestureLatencyTracer latencyTracer) {
+        Set<FeedbackEffect> tracedEffects = new LinkedHashSet<>();
+        for (FeedbackEffect effect : effects) {
+            tracedEffects.add(latencyTracer.traceEffect(effect));
+        }
         return new ColumbusService(
                 actions,
-                effects,
+                tracedEffects,
                 gates,
                 gestureController,
                 powerManager);
@@ -201,30 +212,60 @@ public interface ColumbusModule {
             GestureSensor gestureSensor,
             @Named(COLUMBUS_SOFT_GATES) Set<Gate> softGates,
             CommandRegistry commandRegistry,
-            UiEventLogger uiEventLogger) {
-        return new GestureController(
+            UiEventLogger uiEventLogger,
+            GestureLatencyTracer latencyTracer) {
+        return new TracingGestureController(
                 gestureSensor,
                 softGates,
                 commandRegistry,
-                uiEventLogger);
+                uiEventLogger,
+                latencyTracer);
     }
 
     @Provides
     @SysUISingleton
-    static CHREGestureSensor provideCHREGestureSensor(
+    static GestureLatencyTracer provideGestureLatencyTracer() {
+        return new GestureLatencyTracer();
+    }
+
+    @Provides
+    @SysUISingleton
+    static ContextHubGestureSensor provideContextHubGestureSensor(
             Context context,
             UiEventLogger uiEventLogger,
-            GestureConfiguration gestureConfiguration,
+            SensitivityPipeline sensitivityPipeline,
             StatusBarStateController statusBarStateController,
             WakefulnessLifecycle wakefulnessLifecycle,
-            @Background Handler bgHandler) {
-        return new CHREGestureSensor(
+            @Background Handler bgHandler,
+            NanoappEventTelemetry nanoappEventTelemetry,
+            GestureLatencyTracer latencyTracer) {
+        return new ContextHubGestureSensor(
                 context,
                 uiEventLogger,
-                gestureConfiguration,
+                sensitivityPipeline,
                 statusBarStateController,
                 wakefulnessLifecycle,
-                bgHandler);
+                bgHandler,
+                nanoappEventTelemetry,
+                latencyTracer);
+    }
+
+    @Provides
+    @SysUISingleton
+    static NanoappEventTelemetry provideNanoappEventTelemetry(
+            @Background DelayableExecutor bgExecutor,
+            WakefulnessLifecycle wakefulnessLifecycle) {
+        return new NanoappEventTelemetry(bgExecutor, wakefulnessLifecycle);
+    }
+
+    @Provides
+    @SysUISingleton
+    static ReplayGestureSensor provideReplayGestureSensor(
+            Context context,
+            UiEventLogger uiEventLogger,
+            @Main Handler handler,
+            GestureLatencyTracer latencyTracer) {
+        return new ReplayGestureSensor(context, uiEventLogger, handler, latencyTracer);
     }
 
     @Provides
@@ -269,24 +310,6 @@ public interface ColumbusModule {
         return new KeyguardVisibility(context, keyguardStateController);
     }
 
-    @Provides
-    @SysUISingleton
-    static ChargingState provideChargingState(
-            Context context,
-            @Main Handler handler,
-            @Named(COLUMBUS_TRANSIENT_GATE_DURATION) long gateDuration) {
-        return new ChargingState(context, handler, gateDuration);
-    }
-
-    @Provides
-    @SysUISingleton
-    static UsbState provideUsbState(
-            Context context,
-            @Main Handler handler,
-            @Named(COLUMBUS_TRANSIENT_GATE_DURATION) long gateDuration) {
-        return new UsbState(context, handler, gateDuration);
-    }
-
     @Provides
     @SysUISingleton
     static PowerSaveState providePowerSaveState(Context context) {
@@ -343,22 +366,6 @@ public interface ColumbusModule {
         return new PowerState(context, wakefulnessLifecycle);
     }
 
-    @Provides
-    @SysUISingleton
-    static SystemKeyPress provideSystemKeyPress(
-            Context context,
-            @Main Handler handler,
-            CommandQueue commandQueue,
-            @Named(COLUMBUS_TRANSIENT_GATE_DURATION) long gateDuration,
-            @Named(COLUMBUS_BLOCKING_SYSTEM_KEYS) Set<Integer> blockingKeysProvider) {
-        return new SystemKeyPress(
-                context,
-                handler,
-                commandQueue,
-                gateDuration,
-                blockingKeysProvider);
-    }
-
     @Provides
     @SysUISingleton
     static ScreenTouch provideScreenTouch(
@@ -370,11 +377,11 @@ public interface ColumbusModule {
 
     @Provides
     @SysUISingleton
-    static TelephonyActivity provideTelephonyActivityColumbus(
+    static CallStateGate provideCallStateGateColumbus(
             Context context,
-            Lazy<TelephonyManager> telephonyManager,
-            Lazy<TelephonyListenerManager> telephonyListenerManager) {
-        return new TelephonyActivity(context, telephonyManager, telephonyListenerManager);
+            @Main Handler handler,
+            CallStateSource callStateSource) {
+        return new CallStateGate(context, handler, callStateSource);
     }
 
     @Provides
@@ -392,9 +399,11 @@ public interface ColumbusModule {
 
     @Provides
     @SysUISingleton
-    static GestureConfiguration provideGestureConfiguration(
-            List<Adjustment> adjustments, SensorConfiguration sensorConfiguration) {
-        return new GestureConfiguration(adjustments, sensorConfiguration);
+    static SensitivityPipeline provideSensitivityPipeline(
+            List<Adjustment> adjustments,
+            SensorConfiguration sensorConfiguration,
+            @Main Handler mainHandler) {
+        return new SensitivityPipeline(adjustments, sensorConfiguration, mainHandler);
     }
 
     @Provides
@@ -415,6 +424,18 @@ public interface ColumbusModule {
                 sensorConfiguration);
     }
 
+    @Provides
+    @SysUISingleton
+    static ChargingAdjustment provideChargingAdjustment(
+            Context context,
+            BatteryController batteryController,
+            SensorConfiguration sensorConfiguration,
+            @Main Executor mainExecutor,
+            @Background Executor bgExecutor) {
+        return new ChargingAdjustment(
+                context, batteryController, sensorConfiguration, mainExecutor, bgExecutor);
+    }
+
     @Provides
     @SysUISingleton
     static SettingsAction provideSettingsActionColumbus(
@@ -426,22 +447,24 @@ public interface ColumbusModule {
 
     @Provides
     @SysUISingleton
-    static UserSelectedAction provideUserSelectedAction(
+    static LazyUserSelectedAction provideUserSelectedAction(
             Context context,
             ColumbusSettings columbusSettings,
-            Map<String, UserAction> userSelectedActions,
-            TakeScreenshot takeScreenshot,
+            Map<String, Lazy<UserAction>> userSelectedActions,
             KeyguardStateController keyguardStateController,
             PowerManagerWrapper powerManagerWrapper,
-            WakefulnessLifecycle wakefulnessLifecycle) {
-        return new UserSelectedAction(
+            WakefulnessLifecycle wakefulnessLifecycle,
+            @Main Handler mainHandler) {
+        return new LazyUserSelectedAction(
                 context,
                 columbusSettings,
                 userSelectedActions,
-                takeScreenshot,
+                // IndexedLaunchApp registers several callbacks; it indexes in the background.
+                Collections.singleton("launch"),
                 keyguardStateController,
                 powerManagerWrapper,
-                wakefulnessLifecycle);
+                wakefulnessLifecycle,
+                mainHandler);
     }
 
     @Provides
@@ -458,14 +481,14 @@ public interface ColumbusModule {
 
     @Provides
     @SysUISingleton
-    static UnpinNotifications provideUnpinNotificationsColumbus(
+    static UnpinPinnedHeadsUp provideUnpinNotificationsColumbus(
             Context context,
             SilenceAlertsDisabled silenceAlertsDisabled,
-            Optional<HeadsUpManager> headsUpManagerOptional) {
-        return new UnpinNotifications(
+            HeadsUpSource headsUpSource) {
+        return new UnpinPinnedHeadsUp(
                 context,
                 silenceAlertsDisabled,
-                headsUpManagerOptional);
+                headsUpSource);
     }
 
     @Provides
@@ -479,7 +502,7 @@ public interface ColumbusModule {
 
     @Provides
     @SysUISingleton
-    static LaunchApp provideLaunchApp(
+    static IndexedLaunchApp provideLaunchApp(
             Context context,
             LauncherApps launcherApps,
             ActivityStarter activityStarter,
@@ -494,7 +517,7 @@ public interface ColumbusModule {
             @Background Executor bgExecutor,
             UiEventLogger uiEventLogger,
             UserTracker userTracker) {
-        return new LaunchApp(
+        return new IndexedLaunchApp(
                 context,
                 launcherApps,
                 activityStarter,
@@ -529,18 +552,11 @@ public interface ColumbusModule {
 
     @Provides
     @SysUISingleton
-    static SilenceCall provideSilenceCallColumbus(
+    static SilenceRingingCall provideSilenceCallColumbus(
             Context context,
             SilenceAlertsDisabled silenceAlertsDisabled,
-            Lazy<TelecomManager> telecomManager,
-            Lazy<TelephonyManager> telephonyManager,
-            Lazy<TelephonyListenerManager> telephonyListenerManager) {
-        return new SilenceCall(
-                context,
-                silenceAlertsDisabled,
-                telecomManager,
-                telephonyManager,
-                telephonyListenerManager);
+            CallStateSource callStateSource) {
+        return new SilenceRingingCall(context, silenceAlertsDisabled, callStateSource);
     }
 
     @Provides
@@ -620,20 +636,28 @@ public interface ColumbusModule {
     @SysUISingleton
     @ElementsIntoSet
     @Named(COLUMBUS_GATES)
-    static Set<Gate> provideColumbusGates(
+    static Set<Gate> provideColumbusGates(GateAggregator gateAggregator) {
+        return new HashSet<>(Collections.singletonList(gateAggregator));
+    }
+
+    @Provides
+    @SysUISingleton
+    static GateAggregator provideGateAggregator(
+            Context context,
+            @Main Handler handler,
             FlagEnabled flagEnabled,
             KeyguardProximity keyguardProximity,
             SetupWizard setupWizard,
-            TelephonyActivity telephonyActivity,
+            CallStateGate callStateGate,
             VrMode vrMode,
             CameraVisibility cameraVisibility,
             PowerSaveState powerSaveState,
             PowerState powerState) {
-        return new HashSet<>(Arrays.asList(
+        return new GateAggregator(context, handler, Arrays.asList(
                 flagEnabled,
                 keyguardProximity,
                 setupWizard,
-                telephonyActivity,
+                callStateGate,
                 vrMode,
                 cameraVisibility,
                 powerSaveState,
@@ -644,36 +668,41 @@ public interface ColumbusModule {
     @SysUISingleton
     @ElementsIntoSet
     @Named(COLUMBUS_SOFT_GATES)
-    static Set<Gate> provideColumbusSoftGates(
-            ChargingState chargingState,
-            UsbState usbState,
-            SystemKeyPress systemKeyPress,
-            ScreenTouch screenTouch) {
-        return new HashSet<>(Arrays.asList(
-                chargingState,
-                usbState,
-                systemKeyPress,
-                screenTouch));
-    }
-
-    @Provides
-    @SysUISingleton
-    static Map<String, UserAction> provideUserSelectedActions(
-            LaunchOpa launchOpa,
-            ManageMedia manageMedia,
-            TakeScreenshot takeScreenshot,
-            LaunchOverview launchOverview,
-            OpenNotificationShade openNotificationShade,
-            LaunchApp launchApp,
-            ToggleFlashlight toggleFlashlight) {
-        Map<String, UserAction> result = new HashMap<>();
-        result.put("assistant", launchOpa);
-        result.put("media", manageMedia);
-        result.put("screenshot", takeScreenshot);
-        result.put("overview", launchOverview);
-        result.put("notifications", openNotificationShade);
-        result.put("launch", launchApp);
-        result.put("flashlight", toggleFlashlight);
+    static Set<Gate> provideColumbusSoftGates(SoftGateTimer softGateTimer) {
+        return new HashSet<>(Collections.singletonList(softGateTimer));
+    }
+
+    @Provides
+    @SysUISingleton
+    static SoftGateTimer provideSoftGateTimer(
+            Context context,
+            @Main Handler handler,
+            CommandQueue commandQueue,
+            @Named(COLUMBUS_BLOCKING_SYSTEM_KEYS) Set<Integer> blockingKeys,
+            ScreenTouch screenTouch,
+            @Named(COLUMBUS_TRANSIENT_GATE_DURATION) long gateDuration) {
+        return new SoftGateTimer(
+                context, handler, commandQueue, blockingKeys, screenTouch, gateDuration);
+    }
+
+    @Provides
+    @SysUISingleton
+    static Map<String, Lazy<UserAction>> provideUserSelectedActions(
+            Lazy<LaunchOpa> launchOpa,
+            Lazy<ManageMedia> manageMedia,
+            Lazy<TakeScreenshot> takeScreenshot,
+            Lazy<LaunchOverview> launchOverview,
+            Lazy<OpenNotificationShade> openNotificationShade,
+            Lazy<IndexedLaunchApp> launchApp,
+            Lazy<ToggleFlashlight> toggleFlashlight) {
+        Map<String, Lazy<UserAction>> result = new HashMap<>();
+        result.put("assistant", launchOpa::get);
+        result.put("media", manageMedia::get);
+        result.put("screenshot", takeScreenshot::get);
+        result.put("overview", launchOverview::get);
+        result.put("notifications", openNotificationShade::get);
+        result.put("launch", launchApp::get);
+        result.put("flashlight", toggleFlashlight::get);
         return result;
     }
 
@@ -682,10 +711,28 @@ public interface ColumbusModule {
     static GestureSensor provideGestureSensor(
             Context context,
             ColumbusSettings columbusSettings,
-            Lazy<CHREGestureSensor> chreGestureSensor,
-            Lazy<GestureSensorImpl> apGestureSensor) {
+            Lazy<ContextHubGestureSensor> chreGestureSensor,
+            Lazy<GestureSensorImpl> apGestureSensor,
+            Lazy<ReplayGestureSensor> replayGestureSensor,
+            UiEventLogger uiEventLogger,
+            KeyguardProximity keyguardProximity,
+            PowerState powerState,
+            GestureLatencyTracer latencyTracer,
+            @Main Handler handler,
+            @Background Handler bgHandler) {
+        if (ReplayGestureSensor.isEnabled()) {
+            Log.i("Columbus/Module", "Creating replay sensor");
+            return replayGestureSensor.get();
+        }
         if (columbusSettings.useApSensor()
                 || !context.getPackageManager().hasSystemFeature("android.hardware.context_hub")) {
+            String model = TapClassifierEngine.modelFor(Build.DEVICE);
+            if (model != null) {
+                Log.i("Columbus/Module", "Creating AP sensor with " + model);
+                return new ApGestureSensor(context, uiEventLogger, handler, bgHandler,
+                        Build.DEVICE, keyguardProximity, powerState, latencyTracer,
+                        apGestureSensor);
+            }
             Log.i("Columbus/Module", "Creating AP sensor");
             return apGestureSensor.get();
         }
@@ -697,8 +744,8 @@ public interface ColumbusModule {
     @SysUISingleton
     static List<Action> provideColumbusActions(
             @Named(COLUMBUS_FULL_SCREEN_ACTIONS) List<Action> fullscreenActions,
-            UnpinNotifications unpinNotifications,
-            UserSelectedAction userSelectedAction) {
+            UnpinPinnedHeadsUp unpinNotifications,
+            LazyUserSelectedAction userSelectedAction) {
         List<Action> result = new ArrayList<>(fullscreenActions);
         result.add(unpinNotifications);
         result.add(userSelectedAction);
@@ -711,7 +758,7 @@ public interface ColumbusModule {
     static List<Action> provideFullscreenActions(
             DismissTimer dismissTimer,
             SnoozeAlarm snoozeAlarm,
-            SilenceCall silenceCall,
+            SilenceRingingCall silenceCall,
             SettingsAction settingsAction) {
         return Arrays.asList(
                 dismissTimer,
@@ -731,8 +778,9 @@ public interface ColumbusModule {
     @Provides
     @SysUISingleton
     static List<Adjustment> provideGestureAdjustments(
-            LowSensitivitySettingAdjustment lowSensitivitySettingAdjustment) {
-        return Collections.singletonList(lowSensitivitySettingAdjustment);
+            LowSensitivitySettingAdjustment lowSensitivitySettingAdjustment,
+            ChargingAdjustment chargingAdjustment) {
+        return Arrays.asList(lowSensitivitySettingAdjustment, chargingAdjustment);
     }
 
     @Provides
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus
+
+import android.os.SystemClock
+import android.os.Trace
+import com.android.systemui.Dumpable
+import com.android.systemui.statusbar.commandline.Command
+import com.google.android.systemui.columbus.feedback.FeedbackEffect
+import com.google.android.systemui.columbus.sensors.GestureController
+import com.google.android.systemui.columbus.sensors.GestureSensor
+import java.io.PrintWriter
+
+/**
+ * End-to-end Quick Tap latency, from the sensor seeing a gesture to the last feedback
+ * effect.
+ *
+ * Each gesture gets a record of `elapsedRealtimeNanos` stamps in a preallocated ring:
+ * - [STAGE_SENSOR]: detected by the sensor, i.e. the IMU sample or nanoapp message.
+ * - [STAGE_REPORTED]: reported to [GestureController] on the main thread.
+ * - [STAGE_DISPATCHED]: past the soft gates, handed to ColumbusService.
+ * - [STAGE_ACTION_DONE]: gates checked, action chosen and triggered.
+ * - [STAGE_COMPLETE]: all feedback effects run.
+ *
+ * Stamps are written on the main thread only. Every gesture is an async
+ * `Columbus#gesture` trace section, and dispatch and feedback are sync sections within it.
+ * `adb shell cmd statusbar columbus-latency [reset]` prints percentiles per stage.
+ */
+class GestureLatencyTracer : Dumpable {
+    private val stamps = LongArray(CAPACITY * STAGE_COUNT)
+    private var records = 0L
+    private var open = false
+    private var blocked = 0L
+
+    /** A sensor reports a gesture it detected at [sensorNanos]. Main thread only. */
+    fun onGestureReported(sensorNanos: Long) {
+        val now = SystemClock.elapsedRealtimeNanos()
+        synchronized(stamps) {
+            openRecord()
+            val base = base(records - 1)
+            stamps[base + STAGE_SENSOR] = sensorNanos
+            stamps[base + STAGE_REPORTED] = now
+        }
+    }
+
+    /** Wraps the ColumbusService listener so dispatch and completion are stamped. */
+    fun traceListener(
+        listener: GestureController.GestureListener
+    ): GestureController.GestureListener = object : GestureController.GestureListener {
+        override fun onGestureDetected(
+            sensor: GestureSensor,
+            flags: Int,
+            detectionProperties: GestureSensor.DetectionProperties?
+        ) {
+            stamp(STAGE_DISPATCHED)
+            Trace.beginSection(DISPATCH_SECTION)
+            try {
+                listener.onGestureDetected(sensor, flags, detectionProperties)
+            } finally {
+                Trace.endSection()
+                complete()
+            }
+        }
+    }
+
+    /** Wraps a feedback effect; the first effect to run marks the action as done. */
+    fun traceEffect(effect: FeedbackEffect): FeedbackEffect = TracedFeedbackEffect(effect)
+
+    private inner class TracedFeedbackEffect(private val effect: FeedbackEffect) : FeedbackEffect {
+        override fun onGestureDetected(
+            flags: Int,
+            detectionProperties: GestureSensor.DetectionProperties?
+        ) {
+            stampOnce(STAGE_ACTION_DONE)
+            Trace.beginSection(FEEDBACK_SECTION)
+            try {
+                effect.onGestureDetected(flags, detectionProperties)
+            } finally {
+                Trace.endSection()
+            }
+        }
+
+        override fun toString(): String = effect.toString()
+    }
+
+    private fun stamp(stage: Int) {
+        val now = SystemClock.elapsedRealtimeNanos()
+        synchronized(stamps) {
+            if (!open) {
+                // From a sensor that does not report its own stamps.
+                openRecord()
+            }
+            stamps[base(records - 1) + stage] = now
+        }
+    }
+
+    private fun stampOnce(stage: Int) {
+        val now = SystemClock.elapsedRealtimeNanos()
+        synchronized(stamps) {
+            if (!open) {
+                return
+            }
+            val index = base(records - 1) + stage
+            if (stamps[index] == 0L) {
+                stamps[index] = now
+            }
+        }
+    }
+
+    private fun complete() {
+        val now = SystemClock.elapsedRealtimeNanos()
+        synchronized(stamps) {
+            if (!open) {
+                return
+            }
+            val base = base(records - 1)
+            if (stamps[base + STAGE_ACTION_DONE] == 0L) {
+                stamps[base + STAGE_ACTION_DONE] = now
+            }
+            stamps[base + STAGE_COMPLETE] = now
+            open = false
+            Trace.endAsyncSection(GESTURE_SECTION, cookie(records - 1))
+        }
+    }
+
+    /** Starts a new record; an unfinished previous one was stopped by a soft gate. */
+    private fun openRecord() {
+        if (open) {
+            blocked++
+            Trace.endAsyncSection(GESTURE_SECTION, cookie(records - 1))
+        }
+        stamps.fill(0L, base(records), base(records) + STAGE_COUNT)
+        Trace.beginAsyncSection(GESTURE_SECTION, cookie(records))
+        records++
+        open = true
+    }
+
+    private fun base(record: Long): Int = (record % CAPACITY).toInt() * STAGE_COUNT
+
+    private fun cookie(record: Long): Int = record.toInt()
+
+    override fun dump(pw: PrintWriter, args: Array<String>) {
+        pw.println("  GestureLatencyTracer:")
+        printPercentiles(pw, "    ")
+    }
+
+    private fun printPercentiles(pw: PrintWriter, prefix: String) {
+        val copy: LongArray
+        val count: Int
+        synchronized(stamps) {
+            copy = stamps.copyOf()
+            count = minOf(records, CAPACITY.toLong()).toInt()
+            pw.println("${prefix}gestures=$records blockedBySoftGates=$blocked")
+        }
+        val deltas = LongArray(count)
+        for (interval in INTERVALS) {
+            var n = 0
+            for (i in 0 until count) {
+                val base = i * STAGE_COUNT
+                val start = copy[base + interval[0]]
+                val end = copy[base + interval[1]]
+                if (start != 0L && end != 0L && copy[base + STAGE_COMPLETE] != 0L) {
+                    deltas[n++] = end - start
+                }
+            }
+            val name = "${STAGE_NAMES[interval[0]]}->${STAGE_NAMES[interval[1]]}"
+            if (n == 0) {
+                pw.println("$prefix$name: no samples")
+                continue
+            }
+            deltas.sort(0, n)
+            pw.println("$prefix$name: n=$n " +
+                "p50=${deltas[(n - 1) / 2] / NANOS_PER_MICRO}us " +
+                "p90=${deltas[(n - 1) * 90 / 100] / NANOS_PER_MICRO}us " +
+                "p99=${deltas[(n - 1) * 99 / 100] / NANOS_PER_MICRO}us " +
+                "max=${deltas[n - 1] / NANOS_PER_MICRO}us")
+        }
+    }
+
+    /** The `columbus-latency` command; safe to run on any thread. */
+    fun newCommand(): Command = LatencyCommand()
+
+    private inner class LatencyCommand : Command {
+        override fun execute(pw: PrintWriter, args: List<String>) {
+            if (args.firstOrNull() == "reset") {
+                synchronized(stamps) {
+                    stamps.fill(0L)
+                    records = 0L
+                    blocked = 0L
+                    open = false
+                }
+                return
+            }
+            printPercentiles(pw, "")
+        }
+
+        override fun help(pw: PrintWriter) {
+            pw.println("usage: $COMMAND_NAME [reset]")
+            pw.println("  Prints Quick Tap latency percentiles per stage, in microseconds")
+        }
+    }
+
+    companion object {
+        const val STAGE_SENSOR = 0
+        const val STAGE_REPORTED = 1
+        const val STAGE_DISPATCHED = 2
+        const val STAGE_ACTION_DONE = 3
+        const val STAGE_COMPLETE = 4
+        private const val STAGE_COUNT = 5
+        private val STAGE_NAMES = arrayOf("sensor", "reported", "dispatched", "action", "complete")
+        private val INTERVALS = arrayOf(
+            intArrayOf(STAGE_SENSOR, STAGE_REPORTED),
+            intArrayOf(STAGE_REPORTED, STAGE_DISPATCHED),
+            intArrayOf(STAGE_DISPATCHED, STAGE_ACTION_DONE),
+            intArrayOf(STAGE_ACTION_DONE, STAGE_COMPLETE),
+            intArrayOf(STAGE_SENSOR, STAGE_COMPLETE),
+            intArrayOf(STAGE_DISPATCHED, STAGE_COMPLETE)
+        )
+
+        private const val CAPACITY = 256
+        private const val NANOS_PER_MICRO = 1000L
+        const val COMMAND_NAME = "columbus-latency"
+        private const val GESTURE_SECTION = "Columbus#gesture"
+        private const val DISPATCH_SECTION = "Columbus#dispatch"
+        private const val FEEDBACK_SECTION = "Columbus#feedback"
+    }
+}
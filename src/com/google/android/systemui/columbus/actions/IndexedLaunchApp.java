@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.systemui.columbus.actions;
+
+import android.app.ActivityManager;
+import android.app.ActivityOptions;
+import android.app.ActivityTaskManager;
+import android.app.IActivityManager;
+import android.app.PendingIntent;
+import android.app.SynchronousUserSwitchObserver;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.LauncherApps;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ShortcutInfo;
+import android.content.pm.Signature;
+import android.content.res.ColorStateList;
+import android.os.Handler;
+import android.os.RemoteException;
+import android.os.UserManager;
+import android.provider.DeviceConfig;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.logging.UiEventLogger;
+import com.android.keyguard.KeyguardUpdateMonitor;
+import com.android.keyguard.KeyguardUpdateMonitorCallback;
+import com.android.systemui.plugins.ActivityStarter;
+import com.android.systemui.settings.UserTracker;
+import com.android.systemui.statusbar.phone.StatusBarKeyguardViewManager;
+import com.google.android.systemui.columbus.ColumbusEvent;
+import com.google.android.systemui.columbus.ColumbusResourceHelper;
+import com.google.android.systemui.columbus.ColumbusSettings;
+import com.google.android.systemui.columbus.gates.Gate;
+import com.google.android.systemui.columbus.gates.KeyguardVisibility;
+import com.google.android.systemui.columbus.sensors.GestureSensor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Quick Tap action that launches the app or shortcut the user picked, like
+ * {@link LaunchApp}, but resolved from a {@link LaunchTargetIndex} snapshot.
+ *
+ * {@link LaunchApp} rescans every launchable activity and shortcut of the user on each
+ * package broadcast and each time the keyguard goes away, and the tap reads the maps
+ * that scan is rewriting. Here package and shortcut changes update only the affected
+ * package, and a tap does a lookup in an immutable snapshot.
+ *
+ * Must be created on the main thread, which owns its listeners and availability; the
+ * indexing and the DeviceConfig read run in the background and post their results back.
+ */
+public class IndexedLaunchApp extends UserAction {
+    private static final String TAG = "Columbus/LaunchApp";
+    private static final String SECURE_DENY_LIST = "systemui_google_columbus_secure_deny_list";
+    private static final String ACTION_SECURE_CAMERA =
+            "android.media.action.STILL_IMAGE_CAMERA_SECURE";
+
+    private final LauncherApps mLauncherApps;
+    private final ActivityStarter mActivityStarter;
+    private final StatusBarKeyguardViewManager mStatusBarKeyguardViewManager;
+    private final KeyguardVisibility mKeyguardVisibility;
+    private final KeyguardUpdateMonitor mKeyguardUpdateMonitor;
+    private final Handler mMainHandler;
+    private final UiEventLogger mUiEventLogger;
+    private final UserTracker mUserTracker;
+    private final LaunchTargetIndex mLaunchTargetIndex;
+
+    private final MessageDigest mMessageDigest;
+    private final Set<String> mAllowPackageList;
+    private final Set<String> mAllowCertList;
+    private final Set<String> mDenyPackageList = new HashSet<>();
+    /** Nothing is launched over the secure keyguard until the deny list has been read. */
+    private boolean mDenyListLoaded;
+
+    private ComponentName mCurrentApp;
+    private String mCurrentShortcut = "";
+
+    private final ColumbusSettings.ColumbusSettingsChangeListener mSettingsListener =
+            new ColumbusSettings.ColumbusSettingsChangeListener() {
+                @Override
+                public void onSelectedAppChange(String selectedApp) {
+                    mCurrentApp = ComponentName.unflattenFromString(selectedApp);
+                    updateAvailable();
+                }
+
+                @Override
+                public void onSelectedAppShortcutChange(String selectedShortcut) {
+                    mCurrentShortcut = selectedShortcut;
+                    updateAvailable();
+                }
+
+                @Override
+                public void onAlertSilenceEnabledChange(boolean enabled) {}
+
+                @Override
+                public void onColumbusEnabledChange(boolean enabled) {}
+
+                @Override
+                public void onLowSensitivityChange(boolean enabled) {}
+
+                @Override
+                public void onSelectedActionChange(String selectedAction) {}
+
+                @Override
+                public void onUseApSensorChange(boolean enabled) {}
+            };
+
+    private final SynchronousUserSwitchObserver mUserSwitchCallback =
+            new SynchronousUserSwitchObserver() {
+                @Override
+                public void onUserSwitching(int newUserId) throws RemoteException {
+                    // A cached index of the new user is served while it is refreshed.
+                    mLaunchTargetIndex.setCurrentUser(newUserId);
+                    mLaunchTargetIndex.ensureIndexed(newUserId);
+                }
+            };
+
+    private final BroadcastReceiver mBootCompletedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mLaunchTargetIndex.ensureIndexed(ActivityManager.getCurrentUser());
+        }
+    };
+
+    private final Gate.Listener mGateListener = gate -> {
+        // The user may have just been unlocked for the first time.
+        if (!gate.isBlocking()) {
+            mLaunchTargetIndex.ensureIndexed(ActivityManager.getCurrentUser());
+        }
+    };
+
+    private final KeyguardUpdateMonitorCallback mKeyguardUpdateMonitorCallback;
+
+    private final DeviceConfig.OnPropertiesChangedListener mDeviceConfigPropertiesChangedListener =
+            properties -> {
+                if (properties.getKeyset().contains(SECURE_DENY_LIST)) {
+                    String denyList = properties.getString(SECURE_DENY_LIST, null);
+                    mMainHandler.post(() -> updateDenyList(denyList));
+                }
+            };
+
+    private final ActivityStarter.OnDismissAction mOnDismissKeyguardAction = () -> {
+        launchUnsecureAppInternal();
+        return false;
+    };
+
+    public IndexedLaunchApp(
+            Context context,
+            LauncherApps launcherApps,
+            ActivityStarter activityStarter,
+            StatusBarKeyguardViewManager statusBarKeyguardViewManager,
+            IActivityManager activityManagerService,
+            UserManager userManager,
+            ColumbusSettings columbusSettings,
+            KeyguardVisibility keyguardVisibility,
+            KeyguardUpdateMonitor keyguardUpdateMonitor,
+            Handler mainHandler,
+            Handler bgHandler,
+            Executor bgExecutor,
+            UiEventLogger uiEventLogger,
+            UserTracker userTracker) {
+        super(context, null);
+        mLauncherApps = launcherApps;
+        mActivityStarter = activityStarter;
+        mStatusBarKeyguardViewManager = statusBarKeyguardViewManager;
+        mKeyguardVisibility = keyguardVisibility;
+        mKeyguardUpdateMonitor = keyguardUpdateMonitor;
+        mMainHandler = mainHandler;
+        mUiEventLogger = uiEventLogger;
+        mUserTracker = userTracker;
+        mLaunchTargetIndex = new LaunchTargetIndex(
+                context,
+                launcherApps,
+                userManager,
+                bgHandler,
+                userId -> mainHandler.post(this::updateAvailable));
+
+        mKeyguardUpdateMonitorCallback = new KeyguardUpdateMonitorCallback() {
+            @Override
+            public void onKeyguardBouncerFullyShowingChanged(boolean fullyShowing) {
+                if (fullyShowing) {
+                    mKeyguardUpdateMonitor.removeCallback(this);
+                    mMainHandler.post(() -> mStatusBarKeyguardViewManager.showBouncerMessage(
+                            context.getString(ColumbusResourceHelper.BOUNCER_MESSAGE_RESID),
+                            ColorStateList.valueOf(-1)));
+                }
+            }
+        };
+
+        try {
+            mMessageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        mAllowPackageList = new HashSet<>(Arrays.asList(context.getResources()
+                .getStringArray(ColumbusResourceHelper.SUMATRA_ALLOW_LIST)));
+        mAllowCertList = new HashSet<>(Arrays.asList(context.getResources()
+                .getStringArray(ColumbusResourceHelper.SUMATRA_CERT_LIST)));
+
+        DeviceConfig.addOnPropertiesChangedListener(
+                DeviceConfig.NAMESPACE_SYSTEMUI, bgExecutor, mDeviceConfigPropertiesChangedListener);
+        bgExecutor.execute(() -> {
+            String denyList = DeviceConfig.getString(
+                    DeviceConfig.NAMESPACE_SYSTEMUI, SECURE_DENY_LIST, null);
+            mainHandler.post(() -> updateDenyList(denyList));
+        });
+        try {
+            activityManagerService.registerUserSwitchObserver(mUserSwitchCallback, TAG);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to register user switch observer", e);
+        }
+        context.registerReceiver(
+                mBootCompletedReceiver, new IntentFilter(Intent.ACTION_BOOT_COMPLETED));
+        mLaunchTargetIndex.setCurrentUser(ActivityManager.getCurrentUser());
+        mLaunchTargetIndex.ensureIndexed(ActivityManager.getCurrentUser());
+
+        columbusSettings.registerColumbusSettingsChangeListener(mSettingsListener);
+        mCurrentApp = ComponentName.unflattenFromString(columbusSettings.selectedApp());
+        mCurrentShortcut = columbusSettings.selectedAppShortcut();
+        keyguardVisibility.registerListener(mGateListener);
+        updateAvailable();
+    }
+
+    private LaunchTargetIndex.Snapshot currentSnapshot() {
+        return mLaunchTargetIndex.snapshot(mUserTracker.getUserId());
+    }
+
+    private String currentPackage() {
+        return mCurrentApp != null ? mCurrentApp.getPackageName() : null;
+    }
+
+    private boolean usingShortcut() {
+        return !TextUtils.isEmpty(mCurrentShortcut)
+                && (mCurrentApp == null || !mCurrentShortcut.equals(mCurrentApp.flattenToString()));
+    }
+
+    private void updateAvailable() {
+        LaunchTargetIndex.Snapshot snapshot = currentSnapshot();
+        if (snapshot == null) {
+            setAvailable(false);
+        } else if (usingShortcut()) {
+            setAvailable(snapshot.shortcut(currentPackage(), mCurrentShortcut) != null);
+        } else {
+            setAvailable(snapshot.appIntent(mCurrentApp) != null);
+        }
+    }
+
+    private void updateDenyList(String denyList) {
+        mDenyListLoaded = true;
+        mDenyPackageList.clear();
+        if (denyList == null) {
+            return;
+        }
+        for (String packageName : denyList.split(",")) {
+            mDenyPackageList.add(packageName.trim());
+        }
+    }
+
+    private boolean stateIsSecure() {
+        return mKeyguardVisibility.isBlocking() && mKeyguardVisibility.isKeyguardSecure();
+    }
+
+    private boolean packageIsAllowed(String packageName) {
+        return mDenyListLoaded && !mDenyPackageList.contains(packageName)
+                && packageIsStrictlyAllowed(packageName);
+    }
+
+    private boolean packageIsStrictlyAllowed(String packageName) {
+        if (packageName == null || !mAllowPackageList.contains(packageName)) {
+            return false;
+        }
+        PackageInfo packageInfo;
+        try {
+            packageInfo = getContext().getPackageManager().getPackageInfo(
+                    packageName, PackageManager.GET_SIGNING_CERTIFICATES);
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+        Signature[] signatures = packageInfo.signingInfo.hasMultipleSigners()
+                ? packageInfo.signingInfo.getApkContentsSigners()
+                : packageInfo.signingInfo.getSigningCertificateHistory();
+        for (Signature signature : signatures) {
+            String digest = new String(
+                    mMessageDigest.digest(signature.toByteArray()), StandardCharsets.UTF_16);
+            if (mAllowCertList.contains(digest)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Intent maybeGetSecureIntent() {
+        if (!stateIsSecure() || !packageIsAllowed(currentPackage())) {
+            return null;
+        }
+        Intent intent = new Intent(ACTION_SECURE_CAMERA)
+                .setPackage(currentPackage())
+                .putExtra(LaunchTargetIndex.QUICK_TAP_SOURCE_EXTRA, true);
+        return intent.resolveActivity(getContext().getPackageManager()) != null ? intent : null;
+    }
+
+    private boolean maybeLaunchSecureApp() {
+        Intent intent = maybeGetSecureIntent();
+        if (intent == null) {
+            return false;
+        }
+        ActivityOptions options = ActivityOptions.makeBasic();
+        options.setDisallowEnterPictureInPictureWhileLaunching(true);
+        options.setRotationAnimationHint(3);
+        try {
+            ActivityTaskManager.getService().startActivityAsUser(
+                    null,
+                    getContext().getBasePackageName(),
+                    getContext().getAttributionTag(),
+                    intent,
+                    intent.resolveTypeIfNeeded(getContext().getContentResolver()),
+                    null,
+                    null,
+                    0,
+                    Intent.FLAG_ACTIVITY_NEW_TASK,
+                    null,
+                    options.toBundle(),
+                    mUserTracker.getUserId());
+            mUiEventLogger.log(ColumbusEvent.COLUMBUS_INVOKED_LAUNCH_APP_SECURE, 0,
+                    mCurrentApp != null ? mCurrentApp.flattenToString() : null);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Unable to start secure activity for " + mCurrentApp, e);
+            return false;
+        }
+    }
+
+    private void launchUnsecureApp() {
+        if (mKeyguardVisibility.isKeyguardShowing() && mKeyguardVisibility.isKeyguardSecure()) {
+            mKeyguardUpdateMonitor.registerCallback(mKeyguardUpdateMonitorCallback);
+        }
+        mActivityStarter.dismissKeyguardThenExecute(mOnDismissKeyguardAction, null, true);
+    }
+
+    private void launchUnsecureAppInternal() {
+        LaunchTargetIndex.Snapshot snapshot = currentSnapshot();
+        if (snapshot == null) {
+            return;
+        }
+        if (usingShortcut()) {
+            ShortcutInfo shortcut = snapshot.shortcut(currentPackage(), mCurrentShortcut);
+            if (shortcut == null) {
+                return;
+            }
+            mUiEventLogger.log(ColumbusEvent.COLUMBUS_INVOKED_LAUNCH_SHORTCUT, 0,
+                    currentPackage() + "/" + shortcut.getId());
+            mLauncherApps.startShortcut(shortcut, null, null);
+            return;
+        }
+        PendingIntent pendingIntent = snapshot.appIntent(mCurrentApp);
+        if (pendingIntent == null) {
+            return;
+        }
+        mUiEventLogger.log(ColumbusEvent.COLUMBUS_INVOKED_LAUNCH_APP, 0,
+                mCurrentApp != null ? mCurrentApp.flattenToString() : null);
+        try {
+            pendingIntent.send();
+        } catch (PendingIntent.CanceledException e) {
+            Log.e(TAG, "Launch intent for " + mCurrentApp + " was cancelled", e);
+        }
+    }
+
+    @Override
+    public boolean availableOnLockscreen() {
+        return true;
+    }
+
+    @Override
+    public String getTag$vendor__unbundled_google__packages__SystemUIGoogle__android_common__sysuig() {
+        return TAG;
+    }
+
+    @Override
+    public void onTrigger(GestureSensor.DetectionProperties detectionProperties) {
+        if (!maybeLaunchSecureApp()) {
+            launchUnsecureApp();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return usingShortcut()
+                ? "Launch " + mCurrentApp + " shortcut " + mCurrentShortcut
+                : "Launch " + mCurrentApp;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.actions
+
+import android.app.PendingIntent
+import android.content.ComponentName
+import android.content.Context
+import android.content.Intent
+import android.content.pm.LauncherActivityInfo
+import android.content.pm.LauncherApps
+import android.content.pm.ShortcutInfo
+import android.os.Handler
+import android.os.UserHandle
+import android.os.UserManager
+import android.util.Log
+
+/**
+ * Launchable activities and shortcuts for Quick Tap's launch action, per user.
+ *
+ * A user's index is built once, when they are first unlocked, and then kept up to date
+ * from [LauncherApps.Callback] deltas one package at a time. Every update publishes a new
+ * immutable [Snapshot], so resolving the target on a tap is a map lookup on the calling
+ * thread with no binder calls or locking.
+ *
+ * LauncherApps only reports changes to the profiles of the user it was created for, so
+ * the callback is registered through a LauncherApps of the current user, moved by
+ * [setCurrentUser], and each user is queried through their own. The index of a user that
+ * was not current may be stale; it is rebuilt when they become current again.
+ *
+ * All updates run on [bgHandler].
+ */
+class LaunchTargetIndex(
+    private val context: Context,
+    private val launcherApps: LauncherApps,
+    private val userManager: UserManager,
+    private val bgHandler: Handler,
+    private val listener: Listener
+) {
+    fun interface Listener {
+        /** Called on the background handler after a user's snapshot changed. */
+        fun onSnapshotChanged(userId: Int)
+    }
+
+    class Snapshot(
+        /** The unlocked user this index belongs to. */
+        val userId: Int,
+        /** A launch intent for every launchable activity, by component. */
+        val apps: Map<ComponentName, PendingIntent>,
+        /** Dynamic and manifest shortcuts, by package and then shortcut id. */
+        val shortcuts: Map<String, Map<String, ShortcutInfo>>
+    ) {
+        fun appIntent(component: ComponentName?): PendingIntent? = apps[component]
+
+        fun shortcut(packageName: String?, id: String): ShortcutInfo? =
+            shortcuts[packageName]?.get(id)
+    }
+
+    /** Replaced, never mutated, by the background handler. */
+    @Volatile
+    private var snapshots: Map<Int, Snapshot> = emptyMap()
+
+    /** Background handler only. */
+    private val userLauncherApps = HashMap<Int, LauncherApps>()
+    private var callbackLauncherApps: LauncherApps? = null
+    private var callbackUserId = UserHandle.USER_NULL
+
+    private val launcherAppsCallback = object : LauncherApps.Callback() {
+        override fun onPackageAdded(packageName: String, user: UserHandle) {
+            updatePackage(packageName, user.identifier)
+        }
+
+        override fun onPackageChanged(packageName: String, user: UserHandle) {
+            updatePackage(packageName, user.identifier)
+        }
+
+        override fun onPackageRemoved(packageName: String, user: UserHandle) {
+            updatePackage(packageName, user.identifier)
+        }
+
+        override fun onPackagesAvailable(
+            packageNames: Array<String>,
+            user: UserHandle,
+            replacing: Boolean
+        ) {
+            packageNames.forEach { updatePackage(it, user.identifier) }
+        }
+
+        override fun onPackagesUnavailable(
+            packageNames: Array<String>,
+            user: UserHandle,
+            replacing: Boolean
+        ) {
+            packageNames.forEach { updatePackage(it, user.identifier) }
+        }
+
+        override fun onShortcutsChanged(
+            packageName: String,
+            shortcuts: List<ShortcutInfo>,
+            user: UserHandle
+        ) {
+            updateShortcuts(packageName, shortcuts, user.identifier)
+        }
+    }
+
+    /** The index for [userId], or null until it has been built. Safe from any thread. */
+    fun snapshot(userId: Int): Snapshot? = snapshots[userId]
+
+    /**
+     * Follows package changes of [userId] and their profiles from now on, and rebuilds
+     * their index if one exists since changes made while they were not current were missed.
+     */
+    fun setCurrentUser(userId: Int) {
+        bgHandler.post {
+            if (userId == callbackUserId) {
+                return@post
+            }
+            callbackLauncherApps?.unregisterCallback(launcherAppsCallback)
+            callbackLauncherApps = launcherAppsFor(userId).also {
+                it.registerCallback(launcherAppsCallback, bgHandler)
+            }
+            callbackUserId = userId
+            if (snapshot(userId) != null) {
+                buildIndex(userId)
+            }
+        }
+    }
+
+    /** Builds the index for [userId] in the background unless it already exists. */
+    fun ensureIndexed(userId: Int) {
+        bgHandler.post {
+            if (snapshot(userId) == null) {
+                buildIndex(userId)
+            }
+        }
+    }
+
+    private fun buildIndex(userId: Int) {
+        if (!userManager.isUserUnlocked(userId)) {
+            Log.d(logTag, "Did not index apps and shortcuts, user $userId not unlocked")
+            return
+        }
+        val apps = HashMap<ComponentName, PendingIntent>()
+        val activities = launcherAppsFor(userId).getActivityList(null, UserHandle.of(userId))
+        activities.forEach { addApp(apps, it, userId) }
+        val shortcuts = HashMap<String, Map<String, ShortcutInfo>>()
+        queryShortcuts(null, userId)?.groupBy { it.`package` }?.forEach { (pkg, infos) ->
+            if (activities.any { it.componentName.packageName == pkg }) {
+                shortcuts[pkg] = infos.associateBy { it.id }
+            }
+        }
+        publish(Snapshot(userId, apps, shortcuts))
+    }
+
+    private fun updatePackage(packageName: String, userId: Int) {
+        val current = snapshot(userId) ?: return
+        val apps = HashMap(current.apps)
+        apps.keys.removeIf { it.packageName == packageName }
+        val activities = try {
+            launcherAppsFor(userId).getActivityList(packageName, UserHandle.of(userId))
+        } catch (e: RuntimeException) {
+            emptyList()
+        }
+        activities.forEach { addApp(apps, it, userId) }
+        val shortcuts = HashMap(current.shortcuts)
+        val infos = if (activities.isEmpty()) null else queryShortcuts(packageName, userId)
+        if (infos.isNullOrEmpty()) {
+            shortcuts.remove(packageName)
+        } else {
+            shortcuts[packageName] = infos.associateBy { it.id }
+        }
+        publish(Snapshot(userId, apps, shortcuts))
+    }
+
+    private fun updateShortcuts(packageName: String, infos: List<ShortcutInfo>, userId: Int) {
+        val current = snapshot(userId) ?: return
+        if (current.apps.keys.none { it.packageName == packageName }) {
+            return
+        }
+        val shortcuts = HashMap(current.shortcuts)
+        val matching = infos.filter { it.isDynamic || it.isDeclaredInManifest }
+        if (matching.isEmpty()) {
+            shortcuts.remove(packageName)
+        } else {
+            shortcuts[packageName] = matching.associateBy { it.id }
+        }
+        publish(Snapshot(userId, current.apps, shortcuts))
+    }
+
+    private fun addApp(
+        apps: MutableMap<ComponentName, PendingIntent>,
+        info: LauncherActivityInfo,
+        userId: Int
+    ) {
+        try {
+            val launchIntent = launcherAppsFor(userId).getMainActivityLaunchIntent(
+                info.componentName,
+                null,
+                UserHandle.of(userId)
+            ) ?: return
+            val sourcedIntent = Intent(launchIntent.intent)
+                .putExtra(QUICK_TAP_SOURCE_EXTRA, true)
+            apps[info.componentName] = PendingIntent.getActivityAsUser(
+                context,
+                0,
+                sourcedIntent,
+                PendingIntent.FLAG_IMMUTABLE,
+                null,
+                UserHandle.of(userId)
+            )
+        } catch (e: RuntimeException) {
+            // The package went away mid-update; its removal callback follows.
+        }
+    }
+
+    private fun queryShortcuts(packageName: String?, userId: Int): List<ShortcutInfo>? {
+        val query = LauncherApps.ShortcutQuery().setQueryFlags(
+            LauncherApps.ShortcutQuery.FLAG_MATCH_DYNAMIC or
+                LauncherApps.ShortcutQuery.FLAG_MATCH_MANIFEST
+        )
+        if (packageName != null) {
+            query.setPackage(packageName)
+        }
+        return try {
+            launcherAppsFor(userId).getShortcuts(query, UserHandle.of(userId))
+        } catch (e: SecurityException) {
+            Log.e(logTag, "Failed to query for shortcuts", e)
+            null
+        } catch (e: IllegalStateException) {
+            Log.e(logTag, "Failed to query for shortcuts", e)
+            null
+        }
+    }
+
+    private fun launcherAppsFor(userId: Int): LauncherApps =
+        if (userId == context.userId) {
+            launcherApps
+        } else {
+            userLauncherApps.getOrPut(userId) {
+                context.createContextAsUser(UserHandle.of(userId), 0)
+                    .getSystemService(LauncherApps::class.java)
+            }
+        }
+
+    private fun publish(snapshot: Snapshot) {
+        snapshots = snapshots + (snapshot.userId to snapshot)
+        listener.onSnapshotChanged(snapshot.userId)
+    }
+
+    companion object {
+        private const val logTag = "Columbus/LaunchTargets"
+        const val QUICK_TAP_SOURCE_EXTRA = "systemui_google_quick_tap_is_source"
+    }
+}
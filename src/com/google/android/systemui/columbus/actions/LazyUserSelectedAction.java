@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.systemui.columbus.actions;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import com.android.systemui.keyguard.WakefulnessLifecycle;
+import com.android.systemui.statusbar.policy.KeyguardStateController;
+import com.google.android.systemui.columbus.ColumbusSettings;
+import com.google.android.systemui.columbus.PowerManagerWrapper;
+import com.google.android.systemui.columbus.sensors.GestureSensor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import dagger.Lazy;
+
+/**
+ * The Quick Tap action the user picked in Settings, like {@link UserSelectedAction}, but
+ * only the selected {@link UserAction} is ever created, on first selection. Actions
+ * listed in {@code deferredActions} are created in a later message on the main handler
+ * rather than inside the selection, so they stay off the startup path; the action is
+ * unavailable until they are ready. Actions are always created, and register their
+ * listeners, on the main thread; any heavy work of their own belongs in the background.
+ *
+ * Written in Java so it can implement {@link Action}'s module-internal tag.
+ */
+public class LazyUserSelectedAction extends Action {
+    private static final String TAG = "Columbus/SelectedAction";
+    private static final String DEFAULT_ACTION = "screenshot";
+
+    private final Map<String, Lazy<UserAction>> mUserSelectedActions;
+    private final Set<String> mDeferredActions;
+    private final KeyguardStateController mKeyguardStateController;
+    private final PowerManagerWrapper mPowerManager;
+    private final Handler mMainHandler;
+
+    private String mCurrentKey;
+    private UserAction mCurrentAction;
+
+    private final Action.Listener mSublistener = action -> {
+        if (action == mCurrentAction) {
+            updateAvailable();
+        }
+    };
+
+    private final ColumbusSettings.ColumbusSettingsChangeListener mSettingsChangeListener =
+            new ColumbusSettings.ColumbusSettingsChangeListener() {
+                @Override
+                public void onSelectedActionChange(String selectedAction) {
+                    selectAction(selectedAction);
+                }
+
+                @Override
+                public void onAlertSilenceEnabledChange(boolean enabled) {}
+
+                @Override
+                public void onColumbusEnabledChange(boolean enabled) {}
+
+                @Override
+                public void onLowSensitivityChange(boolean enabled) {}
+
+                @Override
+                public void onSelectedAppChange(String selectedApp) {}
+
+                @Override
+                public void onSelectedAppShortcutChange(String selectedAppShortcut) {}
+
+                @Override
+                public void onUseApSensorChange(boolean enabled) {}
+            };
+
+    private final KeyguardStateController.Callback mKeyguardMonitorCallback =
+            new KeyguardStateController.Callback() {
+                @Override
+                public void onKeyguardShowingChanged() {
+                    updateAvailable();
+                }
+            };
+
+    private final WakefulnessLifecycle.Observer mWakefulnessLifecycleObserver =
+            new WakefulnessLifecycle.Observer() {
+                @Override
+                public void onStartedWakingUp() {
+                    updateAvailable();
+                }
+
+                @Override
+                public void onFinishedGoingToSleep() {
+                    updateAvailable();
+                }
+            };
+
+    public LazyUserSelectedAction(
+            Context context,
+            ColumbusSettings columbusSettings,
+            Map<String, Lazy<UserAction>> userSelectedActions,
+            Set<String> deferredActions,
+            KeyguardStateController keyguardStateController,
+            PowerManagerWrapper powerManager,
+            WakefulnessLifecycle wakefulnessLifecycle,
+            Handler mainHandler) {
+        super(context, Collections.emptySet());
+        mUserSelectedActions = userSelectedActions;
+        mDeferredActions = deferredActions;
+        mKeyguardStateController = keyguardStateController;
+        mPowerManager = powerManager;
+        mMainHandler = mainHandler;
+
+        selectAction(columbusSettings.selectedAction());
+        columbusSettings.registerColumbusSettingsChangeListener(mSettingsChangeListener);
+        keyguardStateController.addCallback(mKeyguardMonitorCallback);
+        wakefulnessLifecycle.addObserver(mWakefulnessLifecycleObserver);
+    }
+
+    private void selectAction(String selectedAction) {
+        String key = mUserSelectedActions.containsKey(selectedAction)
+                ? selectedAction : DEFAULT_ACTION;
+        if (key.equals(mCurrentKey)) {
+            return;
+        }
+        if (mCurrentAction != null) {
+            mCurrentAction.unregisterListener(mSublistener);
+            mCurrentAction.onGestureDetected(0, null);
+            mCurrentAction = null;
+        }
+        mCurrentKey = key;
+        Lazy<UserAction> lazyAction = mUserSelectedActions.get(key);
+        if (!mDeferredActions.contains(key)) {
+            setCurrentAction(key, lazyAction.get());
+            return;
+        }
+        setAvailable(false);
+        mMainHandler.post(() -> {
+            if (key.equals(mCurrentKey)) {
+                setCurrentAction(key, lazyAction.get());
+            }
+        });
+    }
+
+    private void setCurrentAction(String key, UserAction action) {
+        if (!key.equals(mCurrentKey) || mCurrentAction == action) {
+            return;
+        }
+        mCurrentAction = action;
+        action.registerListener(mSublistener);
+        Log.i(TAG, "User Action selected: " + action);
+        updateAvailable();
+    }
+
+    private void updateAvailable() {
+        UserAction action = mCurrentAction;
+        if (action == null || !action.isAvailable()) {
+            setAvailable(false);
+        } else if (!action.availableOnScreenOff()
+                && !Boolean.TRUE.equals(mPowerManager.isInteractive())) {
+            setAvailable(false);
+        } else if (!action.availableOnLockscreen() && mKeyguardStateController.isShowing()) {
+            setAvailable(false);
+        } else {
+            setAvailable(true);
+        }
+    }
+
+    @Override
+    public String getTag$vendor__unbundled_google__packages__SystemUIGoogle__android_common__sysuig() {
+        return mCurrentAction != null
+                ? mCurrentAction
+                        .getTag$vendor__unbundled_google__packages__SystemUIGoogle__android_common__sysuig()
+                : TAG;
+    }
+
+    @Override
+    public void onGestureDetected(int flags, GestureSensor.DetectionProperties detectionProperties) {
+        if (mCurrentAction != null) {
+            mCurrentAction.onGestureDetected(flags, detectionProperties);
+        }
+    }
+
+    @Override
+    public void onTrigger(GestureSensor.DetectionProperties detectionProperties) {
+        if (mCurrentAction != null) {
+            mCurrentAction.onTrigger(detectionProperties);
+        }
+    }
+
+    @Override
+    public void updateFeedbackEffects(
+            int flags, GestureSensor.DetectionProperties detectionProperties) {
+        if (mCurrentAction != null) {
+            mCurrentAction.updateFeedbackEffects(flags, detectionProperties);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " [currentAction -> "
+                + (mCurrentAction != null ? mCurrentAction : mCurrentKey + " (loading)") + "]";
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.systemui.columbus.actions;
+
+import android.content.Context;
+
+import com.google.android.systemui.columbus.gates.Gate;
+import com.google.android.systemui.columbus.gates.SilenceAlertsDisabled;
+import com.google.android.systemui.columbus.sensors.GestureSensor;
+import com.google.android.systemui.gesture.CallStateSource;
+
+import java.util.Collections;
+
+/**
+ * Silences the ringer of an incoming call, like {@link SilenceCall}, but follows the
+ * {@link CallStateSource} shared with the squeeze gesture instead of its own telephony
+ * listener. It only listens while silencing alerts is enabled.
+ *
+ * Written in Java so it can implement {@link Action}'s module-internal tag.
+ */
+public class SilenceRingingCall extends Action {
+    private static final String TAG = "Columbus/SilenceCall";
+
+    private final SilenceAlertsDisabled mSilenceAlertsDisabled;
+    private final CallStateSource mCallStateSource;
+    private boolean mIsPhoneRinging;
+
+    private final CallStateSource.Listener mCallStateListener = callState -> {
+        mIsPhoneRinging = mCallStateSource.isRinging();
+        updateAvailable();
+    };
+
+    private final Gate.Listener mGateListener = gate -> updatePhoneStateListener();
+
+    public SilenceRingingCall(
+            Context context,
+            SilenceAlertsDisabled silenceAlertsDisabled,
+            CallStateSource callStateSource) {
+        super(context, Collections.emptySet());
+        mSilenceAlertsDisabled = silenceAlertsDisabled;
+        mCallStateSource = callStateSource;
+        silenceAlertsDisabled.registerListener(mGateListener);
+        updatePhoneStateListener();
+    }
+
+    private void updatePhoneStateListener() {
+        if (mSilenceAlertsDisabled.isBlocking()) {
+            mCallStateSource.removeListener(mCallStateListener);
+        } else {
+            mCallStateSource.addListener(mCallStateListener);
+        }
+        mIsPhoneRinging = mCallStateSource.isRinging();
+        updateAvailable();
+    }
+
+    private void updateAvailable() {
+        setAvailable(!mSilenceAlertsDisabled.isBlocking() && mIsPhoneRinging);
+    }
+
+    @Override
+    public String getTag$vendor__unbundled_google__packages__SystemUIGoogle__android_common__sysuig() {
+        return TAG;
+    }
+
+    @Override
+    public void onTrigger(GestureSensor.DetectionProperties detectionProperties) {
+        mCallStateSource.silenceRinger();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " [isPhoneRinging -> " + mIsPhoneRinging + "]";
+    }
+}
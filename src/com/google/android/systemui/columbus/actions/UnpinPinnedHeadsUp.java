@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.systemui.columbus.actions;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.systemui.columbus.gates.Gate;
+import com.google.android.systemui.columbus.gates.SilenceAlertsDisabled;
+import com.google.android.systemui.columbus.sensors.GestureSensor;
+import com.google.android.systemui.gesture.HeadsUpSource;
+
+import java.util.Collections;
+
+/**
+ * Unpins heads up notifications, like {@link UnpinNotifications}, but follows the
+ * {@link HeadsUpSource} shared with the squeeze gesture instead of its own heads up
+ * listener. It only listens while silencing alerts is enabled.
+ *
+ * Written in Java so it can implement {@link Action}'s module-internal tag.
+ */
+public class UnpinPinnedHeadsUp extends Action {
+    private static final String TAG = "Columbus/UnpinNotif";
+
+    private final SilenceAlertsDisabled mSilenceAlertsDisabled;
+    private final HeadsUpSource mHeadsUpSource;
+    private boolean mHasPinnedHeadsUp;
+
+    private final HeadsUpSource.Listener mHeadsUpListener = hasPinnedHeadsUp -> {
+        mHasPinnedHeadsUp = hasPinnedHeadsUp;
+        updateAvailable();
+    };
+
+    private final Gate.Listener mGateListener = gate -> updateHeadsUpListener();
+
+    public UnpinPinnedHeadsUp(
+            Context context,
+            SilenceAlertsDisabled silenceAlertsDisabled,
+            HeadsUpSource headsUpSource) {
+        super(context, Collections.emptySet());
+        mSilenceAlertsDisabled = silenceAlertsDisabled;
+        mHeadsUpSource = headsUpSource;
+        if (headsUpSource.isSupported()) {
+            silenceAlertsDisabled.registerListener(mGateListener);
+        } else {
+            Log.w(TAG, "No HeadsUpManager");
+        }
+        updateHeadsUpListener();
+    }
+
+    private void updateHeadsUpListener() {
+        if (mSilenceAlertsDisabled.isBlocking()) {
+            mHeadsUpSource.removeListener(mHeadsUpListener);
+            mHasPinnedHeadsUp = false;
+        } else {
+            mHeadsUpSource.addListener(mHeadsUpListener);
+            mHasPinnedHeadsUp = mHeadsUpSource.getHasPinnedHeadsUp();
+        }
+        updateAvailable();
+    }
+
+    private void updateAvailable() {
+        setAvailable(!mSilenceAlertsDisabled.isBlocking() && mHasPinnedHeadsUp);
+    }
+
+    @Override
+    public String getTag$vendor__unbundled_google__packages__SystemUIGoogle__android_common__sysuig() {
+        return TAG;
+    }
+
+    @Override
+    public void onTrigger(GestureSensor.DetectionProperties detectionProperties) {
+        mHeadsUpSource.unpinAll();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " [hasPinnedHeadsUp -> " + mHasPinnedHeadsUp + "]";
+    }
+}
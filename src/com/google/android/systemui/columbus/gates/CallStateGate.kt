@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.gates
+
+import android.content.Context
+import android.os.Handler
+import com.google.android.systemui.gesture.CallStateSource
+
+/**
+ * Blocks while a call is off hook, like [TelephonyActivity], but follows the
+ * [CallStateSource] shared with the squeeze gesture instead of its own telephony listener.
+ */
+class CallStateGate(
+    context: Context,
+    handler: Handler,
+    private val callStateSource: CallStateSource
+) : Gate(context, handler) {
+    private val callStateListener = CallStateSource.Listener { updateBlocking() }
+
+    override fun onActivate() {
+        callStateSource.addListener(callStateListener)
+        updateBlocking()
+    }
+
+    override fun onDeactivate() {
+        callStateSource.removeListener(callStateListener)
+    }
+
+    private fun updateBlocking() {
+        setBlocking(callStateSource.isOffHook)
+    }
+}
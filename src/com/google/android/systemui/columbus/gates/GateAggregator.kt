@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.gates
+
+import android.content.Context
+import android.os.Handler
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A single [Gate] standing in for up to 64 child gates.
+ *
+ * Every child gets a fixed bit index and pushes its state into an atomic mask when it
+ * changes, so [isBlocking] is a single read instead of a walk over every gate. Listeners
+ * of the aggregate are only notified when the mask flips between zero and non-zero.
+ */
+class GateAggregator(
+    context: Context,
+    handler: Handler,
+    private val gates: List<Gate>
+) : Gate(context, handler) {
+    private val blockingMask = AtomicLong()
+    private val childListeners = Array(gates.size) { bit ->
+        object : Listener {
+            override fun onGateChanged(gate: Gate) = update(bit, gate.isBlocking())
+        }
+    }
+
+    init {
+        require(gates.size <= Long.SIZE_BITS) { "Too many gates: ${gates.size}" }
+    }
+
+    override fun onActivate() {
+        gates.forEachIndexed { bit, gate -> gate.registerListener(childListeners[bit]) }
+        gates.forEachIndexed { bit, gate -> update(bit, gate.isBlocking()) }
+    }
+
+    override fun onDeactivate() {
+        gates.forEachIndexed { bit, gate -> gate.unregisterListener(childListeners[bit]) }
+        blockingMask.set(0L)
+        setBlocking(false)
+    }
+
+    override fun isBlocking(): Boolean = blockingMask.get() != 0L
+
+    private fun update(bit: Int, blocking: Boolean) {
+        val flag = 1L shl bit
+        var old: Long
+        var updated: Long
+        do {
+            old = blockingMask.get()
+            updated = if (blocking) old or flag else old and flag.inv()
+        } while (!blockingMask.compareAndSet(old, updated))
+        if ((old == 0L) != (updated == 0L)) {
+            setBlocking(updated != 0L)
+        }
+    }
+
+    /** Names the gates currently blocking, for ColumbusService logging and dumps. */
+    override fun toString(): String {
+        val mask = blockingMask.get()
+        return gates.filterIndexed { bit, _ -> mask and (1L shl bit) != 0L }
+            .joinToString(prefix = "${super.toString()}[", postfix = "]")
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.gates
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.Handler
+import android.os.SystemClock
+import com.android.systemui.statusbar.CommandQueue
+
+/**
+ * The soft gates consulted by GestureController, with the transient ones timed inline.
+ *
+ * Plugging in power, a USB state change and a blocking system key each suppress gestures
+ * for [transientGateDuration]. Rather than the prebuilt ChargingState, UsbState and
+ * SystemKeyPress gates, which post a reset message per block and a listener notification
+ * on every edge, this gate listens to the same events itself and stamps an expiry in a
+ * primitive array at the moment the event arrives. Deciding whether a detected gesture is
+ * blocked is a comparison of the monotonic clock against the latest expiry, and nothing
+ * is posted to the main looper for a transient block. [screenTouch] has no fixed
+ * duration and is still asked directly.
+ *
+ * The timer never notifies listeners; GestureController only polls it.
+ */
+class SoftGateTimer(
+    context: Context,
+    handler: Handler,
+    private val commandQueue: CommandQueue,
+    private val blockingKeys: Set<Int>,
+    private val screenTouch: Gate,
+    private val transientGateDuration: Long
+) : Gate(context, handler) {
+    private val expiries = LongArray(SOURCES.size)
+    private val blocks = IntArray(SOURCES.size)
+    @Volatile
+    private var blockedUntil = 0L
+    private var usbConnected = false
+
+    private val screenTouchListener = object : Listener {
+        override fun onGateChanged(gate: Gate) {}
+    }
+
+    private val powerReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) = block(CHARGING)
+    }
+
+    private val usbReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent?) {
+            val connected = intent?.getBooleanExtra(USB_CONNECTED, false) ?: return
+            if (connected != usbConnected) {
+                usbConnected = connected
+                block(USB)
+            }
+        }
+    }
+
+    private val commandQueueCallbacks = object : CommandQueue.Callbacks {
+        override fun handleSystemKey(key: Int) {
+            if (key in blockingKeys) {
+                block(SYSTEM_KEY)
+            }
+        }
+    }
+
+    override fun onActivate() {
+        context.registerReceiver(
+            powerReceiver,
+            IntentFilter().apply {
+                addAction(Intent.ACTION_POWER_CONNECTED)
+                addAction(Intent.ACTION_POWER_DISCONNECTED)
+            }
+        )
+        val usbFilter = IntentFilter(ACTION_USB_STATE)
+        usbConnected = context.registerReceiver(null, usbFilter)
+            ?.getBooleanExtra(USB_CONNECTED, false) ?: false
+        context.registerReceiver(usbReceiver, usbFilter)
+        commandQueue.addCallback(commandQueueCallbacks)
+        screenTouch.registerListener(screenTouchListener)
+    }
+
+    override fun onDeactivate() {
+        context.unregisterReceiver(powerReceiver)
+        context.unregisterReceiver(usbReceiver)
+        commandQueue.removeCallback(commandQueueCallbacks)
+        screenTouch.unregisterListener(screenTouchListener)
+        expiries.fill(0L)
+        blockedUntil = 0L
+    }
+
+    override fun isBlocking(): Boolean =
+        SystemClock.uptimeMillis() < blockedUntil || screenTouch.isBlocking()
+
+    private fun block(source: Int) {
+        val until = SystemClock.uptimeMillis() + transientGateDuration
+        expiries[source] = until
+        blocks[source]++
+        if (until > blockedUntil) {
+            blockedUntil = until
+        }
+    }
+
+    override fun toString(): String {
+        val now = SystemClock.uptimeMillis()
+        val blocking = SOURCES.filterIndexed { index, _ -> now < expiries[index] } +
+            if (screenTouch.isBlocking()) listOf(screenTouch.toString()) else emptyList()
+        val counts = SOURCES.mapIndexed { index, name -> "$name=${blocks[index]}" }
+        return "${super.toString()}$blocking blocks$counts"
+    }
+
+    companion object {
+        private const val CHARGING = 0
+        private const val USB = 1
+        private const val SYSTEM_KEY = 2
+        private val SOURCES = listOf("ChargingState", "UsbState", "SystemKeyPress")
+
+        private const val ACTION_USB_STATE = "android.hardware.usb.action.USB_STATE"
+        private const val USB_CONNECTED = "connected"
+    }
+}
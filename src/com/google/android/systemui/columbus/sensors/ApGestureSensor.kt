@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors
+
+import android.content.Context
+import android.hardware.Sensor
+import android.hardware.SensorEvent
+import android.hardware.SensorEventListener
+import android.hardware.SensorManager
+import android.os.Handler
+import android.util.Log
+import com.android.internal.logging.UiEventLogger
+import com.android.systemui.Dumpable
+import com.google.android.systemui.columbus.ColumbusEvent
+import com.google.android.systemui.columbus.GestureLatencyTracer
+import com.google.android.systemui.columbus.gates.PowerState
+import com.google.android.systemui.columbus.gates.KeyguardProximity
+import dagger.Lazy
+import java.io.PrintWriter
+
+/**
+ * AP Quick Tap sensor for devices without a context hub, running the device's
+ * `tap7cls` model through a [TapClassifierEngine].
+ *
+ * The accelerometer and gyroscope always run at the model's rate and every sample reaches
+ * the engine, so the tap that wakes the sensor is classified like any other. While idle
+ * the samples are batched in the sensor hub FIFO for up to [IDLE_REPORT_LATENCY_US], so
+ * the AP only wakes a few times a second. Once the engine's peak detector sees a candidate
+ * tap the [SamplingRateController] switches to live delivery, like the nanoapp's
+ * HIGH_IMU_ODR_START, so the second tap of a double tap is reported without delay.
+ *
+ * The engine for [device] is loaded on [bgHandler] the first time the sensor starts
+ * listening, so mapping the model and preparing the interpreter stay off the main thread
+ * and out of SystemUI startup. Sensor events are handled on [bgHandler] too so inference
+ * never runs on the main thread; detected gestures are reported on [handler], as
+ * [GestureSensorImpl] does.
+ *
+ * If the model fails to load, the sensor falls back to [fallback], the prebuilt TapRT
+ * sensor, and forwards its gestures.
+ */
+class ApGestureSensor(
+    context: Context,
+    private val uiEventLogger: UiEventLogger,
+    private val handler: Handler,
+    private val bgHandler: Handler,
+    private val device: String,
+    keyguardProximity: KeyguardProximity,
+    powerState: PowerState,
+    private val latencyTracer: GestureLatencyTracer,
+    private val fallback: Lazy<GestureSensorImpl>
+) : GestureSensor(), Dumpable {
+    private val assets = context.assets
+    private val sensorManager = context.getSystemService(SensorManager::class.java)
+    private val accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER)
+    private val gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE)
+    private var listening = false
+    /** Only used on [bgHandler]. */
+    private var lastPeaks = 0L
+    private var promotionPending = false
+    /** Only written on [bgHandler]. */
+    @Volatile
+    private var engine: TapClassifierEngine? = null
+    private var engineLoadFailed = false
+    private val loadEngine = Runnable {
+        if (engine == null && !engineLoadFailed) {
+            engine = TapClassifierEngine.create(assets, device)
+            if (engine == null) {
+                engineLoadFailed = true
+                handler.post(::useFallback)
+            }
+        }
+    }
+    /** Main thread only; set once the engine failed to load. */
+    private var fallbackSensor: GestureSensor? = null
+    private val fallbackListener = object : GestureSensor.Listener {
+        override fun onGestureDetected(
+            sensor: GestureSensor,
+            flags: Int,
+            detectionProperties: DetectionProperties?
+        ) {
+            reportGestureDetected(flags, detectionProperties)
+        }
+    }
+
+    private val samplingRateController = SamplingRateController(
+        bgHandler,
+        keyguardProximity,
+        powerState
+    ) { highRate -> onSamplingRateChanged(highRate) }
+
+    @Volatile
+    private var singleTapNanos = 0L
+    @Volatile
+    private var doubleTapNanos = 0L
+    private val reportSingleTap = Runnable {
+        latencyTracer.onGestureReported(singleTapNanos)
+        reportGestureDetected(TapClassifierEngine.GESTURE_SINGLE_TAP, DetectionProperties(false))
+    }
+    private val reportDoubleTap = Runnable {
+        latencyTracer.onGestureReported(doubleTapNanos)
+        reportGestureDetected(TapClassifierEngine.GESTURE_DOUBLE_TAP, DetectionProperties(true))
+    }
+    private val logHighPower = Runnable {
+        uiEventLogger.log(ColumbusEvent.COLUMBUS_MODE_HIGH_POWER_ACTIVE)
+    }
+    private val logLowPower = Runnable {
+        uiEventLogger.log(ColumbusEvent.COLUMBUS_MODE_LOW_POWER_ACTIVE)
+    }
+
+    /**
+     * Posted rather than run from the listener so the rest of the batch being delivered
+     * reaches the engine before the sensors are re-registered.
+     */
+    private val promote = Runnable {
+        promotionPending = false
+        samplingRateController.onCandidateTap()
+    }
+
+    private val sensorEventListener = object : SensorEventListener {
+        override fun onSensorChanged(event: SensorEvent) {
+            val engine = engine ?: return
+            val values = event.values
+            when (engine.onSample(
+                event.sensor.type,
+                values[0],
+                values[1],
+                values[2],
+                event.timestamp
+            )) {
+                TapClassifierEngine.GESTURE_NONE -> {
+                    if (engine.peaks != lastPeaks) {
+                        lastPeaks = engine.peaks
+                        if (!samplingRateController.highRate && !promotionPending) {
+                            promotionPending = true
+                            bgHandler.post(promote)
+                        }
+                    }
+                }
+                TapClassifierEngine.GESTURE_SINGLE_TAP -> {
+                    samplingRateController.onTapActivity()
+                    singleTapNanos = event.timestamp
+                    handler.post(reportSingleTap)
+                }
+                TapClassifierEngine.GESTURE_DOUBLE_TAP -> {
+                    samplingRateController.onTapActivity()
+                    doubleTapNanos = event.timestamp
+                    handler.post(reportDoubleTap)
+                }
+            }
+        }
+
+        override fun onAccuracyChanged(sensor: Sensor, accuracy: Int) {}
+    }
+
+    override fun isListening(): Boolean = listening
+
+    override fun startListening() {
+        if (accelerometer == null || gyroscope == null || listening) {
+            return
+        }
+        listening = true
+        fallbackSensor?.let {
+            it.startListening()
+            return
+        }
+        bgHandler.post(loadEngine)
+        samplingRateController.start()
+    }
+
+    override fun stopListening() {
+        if (!listening) {
+            return
+        }
+        listening = false
+        fallbackSensor?.let {
+            it.stopListening()
+            return
+        }
+        samplingRateController.stop()
+        bgHandler.post {
+            bgHandler.removeCallbacks(promote)
+            promotionPending = false
+            sensorManager.unregisterListener(sensorEventListener)
+        }
+        uiEventLogger.log(ColumbusEvent.COLUMBUS_MODE_INACTIVE)
+    }
+
+    private fun useFallback() {
+        if (fallbackSensor != null) {
+            return
+        }
+        Log.w(logTag, "Unable to load ${TapClassifierEngine.modelFor(device)}, using TapRT")
+        val sensor = fallback.get()
+        sensor.setGestureListener(fallbackListener)
+        fallbackSensor = sensor
+        if (listening) {
+            samplingRateController.stop()
+            sensor.startListening()
+        }
+    }
+
+    /** Called on [bgHandler]; re-registers the sensors with the new report latency. */
+    private fun onSamplingRateChanged(highRate: Boolean) {
+        val engine = engine ?: return
+        lastPeaks = engine.peaks
+        val latencyUs = if (highRate) 0 else IDLE_REPORT_LATENCY_US
+        sensorManager.unregisterListener(sensorEventListener)
+        sensorManager.registerListener(
+            sensorEventListener,
+            accelerometer,
+            SAMPLING_PERIOD_US,
+            latencyUs,
+            bgHandler
+        )
+        sensorManager.registerListener(
+            sensorEventListener,
+            gyroscope,
+            SAMPLING_PERIOD_US,
+            latencyUs,
+            bgHandler
+        )
+        handler.post(if (highRate) logHighPower else logLowPower)
+    }
+
+    override fun dump(pw: PrintWriter, args: Array<String>) {
+        val engine = engine
+        if (fallbackSensor != null) {
+            pw.println("    model=${TapClassifierEngine.modelFor(device)} (failed to load, " +
+                "using TapRT)")
+            return
+        }
+        if (engine == null) {
+            pw.println("    model=${TapClassifierEngine.modelFor(device)} (not loaded)")
+        } else {
+            pw.println("    model=${engine.modelName}")
+            pw.println("    peaks=${engine.peaks} inferences=${engine.inferences}")
+        }
+        samplingRateController.dump(pw)
+    }
+
+    companion object {
+        private const val logTag = "Columbus/ApSensor"
+
+        /** 2.4ms, the frame interval the tap models were trained on. */
+        private const val SAMPLING_PERIOD_US = 2400
+        /** 100ms, how long idle samples may wait in the sensor hub FIFO. */
+        private const val IDLE_REPORT_LATENCY_US = 100000
+    }
+}
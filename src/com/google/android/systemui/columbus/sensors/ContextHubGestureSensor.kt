@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors
+
+import android.content.Context
+import android.hardware.location.ContextHubClient
+import android.hardware.location.ContextHubClientCallback
+import android.hardware.location.ContextHubManager
+import android.hardware.location.ContextHubTransaction
+import android.hardware.location.NanoAppMessage
+import android.os.Handler
+import android.os.SystemClock
+import android.util.Log
+import androidx.annotation.GuardedBy
+import com.android.internal.logging.UiEventLogger
+import com.android.internal.util.RingBuffer
+import com.android.systemui.Dumpable
+import com.android.systemui.keyguard.WakefulnessLifecycle
+import com.android.systemui.plugins.statusbar.StatusBarStateController
+import com.google.android.systemui.columbus.ColumbusEvent
+import com.google.android.systemui.columbus.GestureLatencyTracer
+import com.google.android.systemui.columbus.proto.nano.ColumbusProto
+import com.google.android.systemui.columbus.sensors.config.SensitivityPipeline
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException
+import com.google.protobuf.nano.MessageNano
+import java.io.PrintWriter
+
+/**
+ * Quick Tap gesture sensor backed by the Columbus nanoapp on the context hub.
+ *
+ * Batched `NanoappEvents` are decoded in place by a [NanoappEventStream] straight into
+ * the [NanoappEventTelemetry] ring, rather than parsed into a message object and
+ * reported to statsd event by event.
+ *
+ * Sensitivity and screen state updates each wake the hub, so they are not sent as they
+ * happen. Only the latest value of each is kept and both are flushed together, in one
+ * background pass, at most once per [UPDATE_WINDOW_MS]. Values the nanoapp already has,
+ * including the sensitivity carried by `RecognizerStart`, are not sent again.
+ */
+class ContextHubGestureSensor(
+    private val context: Context,
+    private val uiEventLogger: UiEventLogger,
+    private val sensitivityPipeline: SensitivityPipeline,
+    statusBarStateController: StatusBarStateController,
+    wakefulnessLifecycle: WakefulnessLifecycle,
+    private val bgHandler: Handler,
+    private val telemetry: NanoappEventTelemetry,
+    private val latencyTracer: GestureLatencyTracer
+) : GestureSensor(), Dumpable {
+    private var contextHubClient: ContextHubClient? = null
+    private val featureVectorDumper = FeatureVectorDumper()
+    private val nanoappEvents = NanoappEventStream(telemetry)
+    private var isAwake = wakefulnessLifecycle.wakefulness == WakefulnessLifecycle.WAKEFULNESS_AWAKE
+    private var isDozing = statusBarStateController.isDozing
+    private var screenOn = isAwake && !isDozing
+    @Volatile
+    private var listening = false
+
+    private val updateLock = Any()
+    @GuardedBy("updateLock")
+    private var pendingScreenState = SCREEN_STATE_UNKNOWN
+    @GuardedBy("updateLock")
+    private var sentScreenState = SCREEN_STATE_UNKNOWN
+    @GuardedBy("updateLock")
+    private var pendingSensitivity = SENSITIVITY_UNKNOWN
+    @GuardedBy("updateLock")
+    private var sentSensitivity = SENSITIVITY_UNKNOWN
+    @GuardedBy("updateLock")
+    private var flushScheduled = false
+    @GuardedBy("updateLock")
+    private var lastFlushMillis = 0L
+    @GuardedBy("updateLock")
+    private var updatesRequested = 0
+    @GuardedBy("updateLock")
+    private var updatesSent = 0
+    private val flushUpdates = Runnable { flushUpdates() }
+
+    private val contextHubClientCallback = object : ContextHubClientCallback() {
+        override fun onMessageFromNanoApp(client: ContextHubClient, message: NanoAppMessage) {
+            if (message.nanoAppId != NANOAPP_ID) {
+                return
+            }
+            when (message.messageType) {
+                MESSAGE_TYPE_GESTURE_DETECTED -> try {
+                    val receivedNanos = SystemClock.elapsedRealtimeNanos()
+                    handleGestureDetection(
+                        ColumbusProto.GestureDetected.parseFrom(message.messageBody),
+                        receivedNanos
+                    )
+                } catch (e: InvalidProtocolBufferNanoException) {
+                    Log.e(logTag, "Invalid protocol buffer", e)
+                }
+                MESSAGE_TYPE_NANOAPP_EVENTS -> {
+                    if (!nanoappEvents.decode(message.messageBody)) {
+                        Log.e(logTag, "Invalid protocol buffer")
+                    }
+                }
+                else -> Log.e(logTag, "Unknown message type: ${message.messageType}")
+            }
+        }
+
+        override fun onHubReset(client: ContextHubClient) {
+            Log.d(logTag, "HubReset: ${client.attachedHub.id}")
+        }
+
+        override fun onNanoAppAborted(client: ContextHubClient, nanoAppId: Long, abortCode: Int) {
+            if (nanoAppId == NANOAPP_ID) {
+                Log.e(logTag, "Nanoapp aborted, code: $abortCode")
+            }
+        }
+
+        override fun onNanoAppLoaded(client: ContextHubClient, nanoAppId: Long) {
+            if (nanoAppId == NANOAPP_ID && isListening()) {
+                Log.d(logTag, "Nanoapp loaded")
+                startRecognizer()
+                flushUpdatesNow()
+            }
+        }
+    }
+
+    private val statusBarStateListener = object : StatusBarStateController.StateListener {
+        override fun onDozingChanged(isDozing: Boolean) = handleDozingChanged(isDozing)
+    }
+
+    private val wakefulnessLifecycleObserver = object : WakefulnessLifecycle.Observer {
+        override fun onStartedGoingToSleep() = handleWakefulnessChanged(false)
+        override fun onFinishedGoingToSleep() = handleWakefulnessChanged(false)
+        override fun onStartedWakingUp() = handleWakefulnessChanged(false)
+        override fun onFinishedWakingUp() = handleWakefulnessChanged(true)
+    }
+
+    init {
+        sensitivityPipeline.setListener { updateSensitivity(it) }
+        synchronized(updateLock) {
+            pendingScreenState = if (screenOn) SCREEN_STATE_ON else SCREEN_STATE_OFF
+            pendingSensitivity = sensitivityPipeline.sensitivity
+        }
+        statusBarStateController.addCallback(statusBarStateListener)
+        wakefulnessLifecycle.addObserver(wakefulnessLifecycleObserver)
+        initializeContextHubClientIfNull()
+    }
+
+    override fun isListening(): Boolean = listening
+
+    override fun startListening() {
+        listening = true
+        startRecognizer()
+        flushUpdatesNow()
+    }
+
+    override fun stopListening() {
+        sendMessageToNanoApp(MESSAGE_TYPE_RECOGNIZER_STOP, ByteArray(0), onSuccess = {
+            uiEventLogger.log(ColumbusEvent.COLUMBUS_MODE_INACTIVE)
+        })
+        listening = false
+    }
+
+    private fun startRecognizer() {
+        val sensitivity = sensitivityPipeline.sensitivity
+        val recognizerStart = ColumbusProto.RecognizerStart()
+        recognizerStart.sensitivity = sensitivity
+        synchronized(updateLock) {
+            // A (re)started recognizer has no screen state until the next flush.
+            sentScreenState = SCREEN_STATE_UNKNOWN
+            sentSensitivity = SENSITIVITY_UNKNOWN
+        }
+        sendMessageToNanoApp(
+            MESSAGE_TYPE_RECOGNIZER_START,
+            MessageNano.toByteArray(recognizerStart),
+            onSuccess = {
+                synchronized(updateLock) { sentSensitivity = sensitivity }
+                uiEventLogger.log(ColumbusEvent.COLUMBUS_MODE_LOW_POWER_ACTIVE)
+            }
+        )
+    }
+
+    private fun updateSensitivity(sensitivity: Float) {
+        synchronized(updateLock) { pendingSensitivity = sensitivity }
+        scheduleFlush()
+    }
+
+    private fun handleDozingChanged(dozing: Boolean) {
+        if (isDozing != dozing) {
+            isDozing = dozing
+            updateScreenState()
+        }
+    }
+
+    private fun handleWakefulnessChanged(awake: Boolean) {
+        if (isAwake != awake) {
+            isAwake = awake
+            updateScreenState()
+        }
+    }
+
+    private fun updateScreenState() {
+        val on = isAwake && !isDozing
+        if (screenOn != on) {
+            screenOn = on
+            synchronized(updateLock) {
+                pendingScreenState = if (on) SCREEN_STATE_ON else SCREEN_STATE_OFF
+            }
+            scheduleFlush()
+        }
+    }
+
+    /** Flushes pending updates once the current window ends. */
+    private fun scheduleFlush() {
+        synchronized(updateLock) {
+            updatesRequested++
+            if (flushScheduled) {
+                return
+            }
+            flushScheduled = true
+            val delay = lastFlushMillis + UPDATE_WINDOW_MS - SystemClock.uptimeMillis()
+            bgHandler.postDelayed(flushUpdates, maxOf(0L, delay))
+        }
+    }
+
+    /** Flushes pending updates right behind a recognizer start, ignoring the window. */
+    private fun flushUpdatesNow() {
+        synchronized(updateLock) {
+            bgHandler.removeCallbacks(flushUpdates)
+            flushScheduled = true
+            bgHandler.post(flushUpdates)
+        }
+    }
+
+    private fun flushUpdates() {
+        val screenState: Int
+        val sensitivity: Float
+        synchronized(updateLock) {
+            flushScheduled = false
+            lastFlushMillis = SystemClock.uptimeMillis()
+            screenState = pendingScreenState.takeIf { it != sentScreenState }
+                ?: SCREEN_STATE_UNKNOWN
+            sensitivity = pendingSensitivity.takeIf { it != sentSensitivity }
+                ?: SENSITIVITY_UNKNOWN
+        }
+        if (!listening) {
+            // Both go out with the next recognizer start.
+            return
+        }
+        if (screenState != SCREEN_STATE_UNKNOWN) {
+            val screenStateUpdate = ColumbusProto.ScreenStateUpdate()
+            screenStateUpdate.screenState = screenState
+            if (sendNow(
+                    MESSAGE_TYPE_SCREEN_STATE_UPDATE,
+                    MessageNano.toByteArray(screenStateUpdate))) {
+                synchronized(updateLock) {
+                    sentScreenState = screenState
+                    updatesSent++
+                }
+            }
+        }
+        if (sensitivity != SENSITIVITY_UNKNOWN) {
+            val sensitivityUpdate = ColumbusProto.SensitivityUpdate()
+            sensitivityUpdate.sensitivity = sensitivity
+            if (sendNow(
+                    MESSAGE_TYPE_SENSITIVITY_UPDATE,
+                    MessageNano.toByteArray(sensitivityUpdate))) {
+                synchronized(updateLock) {
+                    sentSensitivity = sensitivity
+                    updatesSent++
+                }
+            }
+        }
+    }
+
+    private fun handleGestureDetection(
+        gestureDetected: ColumbusProto.GestureDetected,
+        receivedNanos: Long
+    ) {
+        latencyTracer.onGestureReported(receivedNanos)
+        reportGestureDetected(
+            protoGestureTypeToGesture(gestureDetected.gestureType),
+            DetectionProperties(gestureDetected.gestureType == GESTURE_TYPE_DOUBLE_TAP)
+        )
+        featureVectorDumper.onGestureDetected(gestureDetected)
+    }
+
+    private fun protoGestureTypeToGesture(gestureType: Int): Int = when (gestureType) {
+        GESTURE_TYPE_SINGLE_TAP -> 1
+        GESTURE_TYPE_DOUBLE_TAP -> 2
+        else -> 0
+    }
+
+    private fun initializeContextHubClientIfNull() {
+        if (contextHubClient != null) {
+            return
+        }
+        val contextHubManager =
+            context.getSystemService(Context.CONTEXTHUB_SERVICE) as ContextHubManager?
+        val contextHubs = contextHubManager?.contextHubs
+        if (contextHubs.isNullOrEmpty()) {
+            Log.e(logTag, "No context hubs found")
+            return
+        }
+        contextHubClient = contextHubManager.createClient(contextHubs[0], contextHubClientCallback)
+    }
+
+    private fun sendMessageToNanoApp(
+        messageType: Int,
+        bytes: ByteArray,
+        onSuccess: (() -> Unit)? = null
+    ) {
+        initializeContextHubClientIfNull()
+        if (contextHubClient == null) {
+            Log.e(logTag, "ContextHubClient null")
+            return
+        }
+        bgHandler.post {
+            if (sendNow(messageType, bytes)) {
+                onSuccess?.invoke()
+            }
+        }
+    }
+
+    /** Sends on the calling (background) thread. */
+    private fun sendNow(messageType: Int, bytes: ByteArray): Boolean {
+        val message = NanoAppMessage.createMessageToNanoApp(NANOAPP_ID, messageType, bytes)
+        val result = contextHubClient?.sendMessageToNanoApp(message)
+        if (result != ContextHubTransaction.RESULT_SUCCESS) {
+            Log.e(logTag, "Unable to send message $messageType to nanoapp, error code $result")
+            return false
+        }
+        return true
+    }
+
+    override fun dump(pw: PrintWriter, args: Array<String>) {
+        featureVectorDumper.dump(pw, args)
+        sensitivityPipeline.dump(pw)
+        synchronized(updateLock) {
+            pw.println("    Nanoapp updates: requested=$updatesRequested sent=$updatesSent")
+        }
+        nanoappEvents.dump(pw)
+        telemetry.dump(pw)
+    }
+
+    private class FeatureVector(gestureDetected: ColumbusProto.GestureDetected) : Dumpable {
+        private val timestamp = SystemClock.elapsedRealtime()
+        private val vector = gestureDetected.featureVector
+        private val gesture = gestureDetected.gestureType
+
+        override fun dump(pw: PrintWriter, args: Array<String>) {
+            pw.println("      Gesture: $gesture, Timestamp: $timestamp")
+            pw.println("        ${vector.joinToString()}")
+        }
+    }
+
+    private class FeatureVectorDumper : Dumpable {
+        private val featureVectors = RingBuffer(FeatureVector::class.java, 10)
+        private var lastSingleTapFeatureVector: FeatureVector? = null
+
+        fun onGestureDetected(gestureDetected: ColumbusProto.GestureDetected) {
+            when (gestureDetected.gestureType) {
+                GESTURE_TYPE_SINGLE_TAP ->
+                    lastSingleTapFeatureVector = FeatureVector(gestureDetected)
+                GESTURE_TYPE_DOUBLE_TAP -> {
+                    val singleTap = lastSingleTapFeatureVector
+                    lastSingleTapFeatureVector = null
+                    if (singleTap == null) {
+                        Log.w(logTag, "Received double tap without single taps, " +
+                            "event will not appear in sysdump")
+                        return
+                    }
+                    featureVectors.append(singleTap)
+                    featureVectors.append(FeatureVector(gestureDetected))
+                }
+            }
+        }
+
+        override fun dump(pw: PrintWriter, args: Array<String>) {
+            pw.println("    Feature Vectors:")
+            featureVectors.toArray().forEach { it.dump(pw, args) }
+        }
+    }
+
+    companion object {
+        private const val logTag = "Columbus/GestureSensor"
+        private const val NANOAPP_ID = 5147455389092024345L
+
+        private const val MESSAGE_TYPE_RECOGNIZER_START = 100
+        private const val MESSAGE_TYPE_RECOGNIZER_STOP = 101
+        private const val MESSAGE_TYPE_SENSITIVITY_UPDATE = 200
+        private const val MESSAGE_TYPE_GESTURE_DETECTED = 300
+        private const val MESSAGE_TYPE_SCREEN_STATE_UPDATE = 400
+        private const val MESSAGE_TYPE_NANOAPP_EVENTS = 500
+
+        private const val GESTURE_TYPE_SINGLE_TAP = 1
+        private const val GESTURE_TYPE_DOUBLE_TAP = 2
+        private const val SCREEN_STATE_ON = 1
+        private const val SCREEN_STATE_OFF = 2
+        private const val SCREEN_STATE_UNKNOWN = 0
+        private const val SENSITIVITY_UNKNOWN = -1f
+
+        /** Shortest time between two batches of sensitivity and screen state updates. */
+        private const val UPDATE_WINDOW_MS = 1000L
+    }
+}
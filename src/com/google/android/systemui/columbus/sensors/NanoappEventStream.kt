@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors
+
+import java.io.PrintWriter
+
+/**
+ * Streaming decoder for the `NanoappEvents` batches sent by the Columbus nanoapp.
+ *
+ * The protobuf wire format is read straight out of the message body and every event is
+ * handed to the [Sink] as a primitive timestamp/type pair the moment it is decoded, so a
+ * batch costs no allocation per event and the sink's own buffer is the only one. Per-type
+ * totals are kept for dumpsys.
+ */
+class NanoappEventStream(private val sink: Sink) {
+    /** Receives decoded events in arrival order. */
+    interface Sink {
+        fun onNanoappEvent(timestamp: Long, type: Int)
+
+        /** Called once after each decoded batch, including a partially decoded one. */
+        fun onBatchEnd() {}
+    }
+
+    private val counts = LongArray(TYPE_COUNT)
+    private var malformedBatches = 0L
+
+    private var bytes = EMPTY
+    private var pos = 0
+    private var limit = 0
+
+    /**
+     * Decodes one serialized `NanoappEvents` message. Events that precede a malformed
+     * entry are kept; the rest of the batch is dropped and false is returned.
+     */
+    fun decode(body: ByteArray): Boolean {
+        bytes = body
+        pos = 0
+        limit = body.size
+        val ok = decodeBatch()
+        bytes = EMPTY
+        sink.onBatchEnd()
+        if (!ok) {
+            malformedBatches++
+        }
+        return ok
+    }
+
+    private fun decodeBatch(): Boolean {
+        while (pos < limit) {
+            val tag = readVarint().toInt()
+            if (tag < 0) {
+                return false
+            }
+            if (tag == BATCHED_EVENTS_TAG) {
+                val length = readVarint()
+                if (length < 0 || length > limit - pos) {
+                    return false
+                }
+                val end = pos + length.toInt()
+                if (!decodeEvent(end)) {
+                    return false
+                }
+            } else if (!skipField(tag, limit)) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private fun decodeEvent(end: Int): Boolean {
+        var timestamp = 0L
+        var type = 0
+        while (pos < end) {
+            val tag = readVarint().toInt()
+            when {
+                tag < 0 -> return false
+                tag == TIMESTAMP_TAG -> timestamp = readVarint()
+                tag == TYPE_TAG -> type = readVarint().toInt()
+                !skipField(tag, end) -> return false
+            }
+        }
+        if (pos != end) {
+            return false
+        }
+        counts[if (type in 0 until TYPE_COUNT) type else 0]++
+        sink.onNanoappEvent(timestamp, type)
+        return true
+    }
+
+    private fun skipField(tag: Int, end: Int): Boolean {
+        when (tag and WIRE_TYPE_MASK) {
+            WIRE_TYPE_VARINT -> readVarint()
+            WIRE_TYPE_FIXED64 -> pos += 8
+            WIRE_TYPE_LENGTH_DELIMITED -> {
+                val length = readVarint()
+                if (length < 0 || length > end - pos) {
+                    return false
+                }
+                pos += length.toInt()
+            }
+            WIRE_TYPE_FIXED32 -> pos += 4
+            else -> return false
+        }
+        return pos in 0..end
+    }
+
+    /** Returns the next base-128 varint, or -1 if the input ends inside it. */
+    private fun readVarint(): Long {
+        var result = 0L
+        var shift = 0
+        while (shift < Long.SIZE_BITS) {
+            if (pos >= limit) {
+                pos = limit + 1
+                return -1L
+            }
+            val b = bytes[pos++].toInt()
+            result = result or ((b and 0x7f).toLong() shl shift)
+            if (b and 0x80 == 0) {
+                return result
+            }
+            shift += 7
+        }
+        pos = limit + 1
+        return -1L
+    }
+
+    fun dump(pw: PrintWriter) {
+        pw.println("    Nanoapp events:")
+        for (type in 1 until TYPE_COUNT) {
+            pw.println("      type $type: ${counts[type]}")
+        }
+        pw.println("      unknown: ${counts[0]}")
+        pw.println("      malformed batches: $malformedBatches")
+    }
+
+    companion object {
+        /** GATE_START through DOUBLE_TAP, plus UNKNOWN at index 0. */
+        const val TYPE_COUNT = 9
+
+        private const val WIRE_TYPE_MASK = 0x7
+        private const val WIRE_TYPE_VARINT = 0
+        private const val WIRE_TYPE_FIXED64 = 1
+        private const val WIRE_TYPE_LENGTH_DELIMITED = 2
+        private const val WIRE_TYPE_FIXED32 = 5
+
+        /** NanoappEvents.batchedEvents = 1, length delimited. */
+        private const val BATCHED_EVENTS_TAG = (1 shl 3) or WIRE_TYPE_LENGTH_DELIMITED
+        /** NanoappEvent.timestamp = 1, varint. */
+        private const val TIMESTAMP_TAG = (1 shl 3) or WIRE_TYPE_VARINT
+        /** NanoappEvent.type = 2, varint. */
+        private const val TYPE_TAG = (2 shl 3) or WIRE_TYPE_VARINT
+
+        private val EMPTY = ByteArray(0)
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors
+
+import android.hardware.google.pixel.vendor.PixelAtoms.DoubleTapNanoappEventReported
+import android.provider.DeviceConfig
+import android.util.StatsEvent
+import android.util.StatsLog
+import androidx.annotation.GuardedBy
+import com.android.systemui.keyguard.WakefulnessLifecycle
+import com.android.systemui.util.concurrency.DelayableExecutor
+import java.io.PrintWriter
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Quick Tap telemetry for the events reported by the Columbus nanoapp.
+ *
+ * The sensor thread decodes events straight into a fixed-size single-producer ring
+ * without taking a lock, and publishes each batch once it has been decoded. The
+ * background executor drains the ring on a DeviceConfig controlled cadence, when the
+ * ring is half full or when the device goes to sleep.
+ *
+ * Each drained event is written as a `DoubleTapNanoappEventReported` atom, so batching
+ * only decides when the atoms are written, and folded into a per-type histogram of
+ * counts and inter-event latency for dump.
+ */
+class NanoappEventTelemetry(
+    private val bgExecutor: DelayableExecutor,
+    wakefulnessLifecycle: WakefulnessLifecycle
+) : NanoappEventStream.Sink {
+    private val timestamps = LongArray(BUFFER_SIZE)
+    private val types = IntArray(BUFFER_SIZE)
+    /** Next slot to read, only advanced by the background executor. */
+    private val readIndex = AtomicLong()
+    /** Next slot to write, only advanced by the sensor thread. */
+    private val writeIndex = AtomicLong()
+    /** Next slot to fill, sensor thread only; published to [writeIndex] per batch. */
+    private var pendingWrite = 0L
+    private val flushScheduled = AtomicBoolean()
+    private val dropped = AtomicLong()
+
+    @Volatile
+    private var flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MS
+
+    private val statsLock = Any()
+    @GuardedBy("statsLock")
+    private val counts = LongArray(NanoappEventStream.TYPE_COUNT)
+    @GuardedBy("statsLock")
+    private val latencyBuckets = Array(NanoappEventStream.TYPE_COUNT) {
+        LongArray(LATENCY_BUCKET_COUNT)
+    }
+    @GuardedBy("statsLock")
+    private var lastTimestamp = 0L
+    @GuardedBy("statsLock")
+    private var flushes = 0L
+    @GuardedBy("statsLock")
+    private var atomsWritten = 0L
+
+    private val flushRunnable = Runnable { flush() }
+
+    init {
+        wakefulnessLifecycle.addObserver(object : WakefulnessLifecycle.Observer {
+            override fun onFinishedGoingToSleep() {
+                if (writeIndex.get() != readIndex.get()) {
+                    bgExecutor.execute(flushRunnable)
+                }
+            }
+        })
+        DeviceConfig.addOnPropertiesChangedListener(
+            DeviceConfig.NAMESPACE_SYSTEMUI,
+            bgExecutor
+        ) { properties ->
+            if (properties.keyset.contains(COLUMBUS_TELEMETRY_FLUSH_INTERVAL_MS)) {
+                readConfig()
+            }
+        }
+        bgExecutor.execute(::readConfig)
+    }
+
+    override fun onNanoappEvent(timestamp: Long, type: Int) {
+        val write = pendingWrite
+        if (write - readIndex.get() >= BUFFER_SIZE) {
+            dropped.incrementAndGet()
+            return
+        }
+        val slot = (write % BUFFER_SIZE).toInt()
+        timestamps[slot] = timestamp
+        types[slot] = type
+        pendingWrite = write + 1
+    }
+
+    override fun onBatchEnd() {
+        val write = pendingWrite
+        if (write == writeIndex.get()) {
+            return
+        }
+        writeIndex.lazySet(write)
+        when {
+            write - readIndex.get() >= BUFFER_SIZE / 2 -> bgExecutor.execute(flushRunnable)
+            flushScheduled.compareAndSet(false, true) ->
+                bgExecutor.executeDelayed(flushRunnable, flushIntervalMillis)
+        }
+    }
+
+    private fun flush() {
+        flushScheduled.set(false)
+        var read = readIndex.get()
+        val write = writeIndex.get()
+        if (read == write) {
+            return
+        }
+        synchronized(statsLock) {
+            atomsWritten += write - read
+            while (read < write) {
+                val slot = (read % BUFFER_SIZE).toInt()
+                record(timestamps[slot], types[slot])
+                writeEventAtom(timestamps[slot], types[slot])
+                read++
+            }
+            readIndex.lazySet(read)
+            flushes++
+        }
+    }
+
+    @GuardedBy("statsLock")
+    private fun record(timestamp: Long, type: Int) {
+        val index = if (type in 0 until NanoappEventStream.TYPE_COUNT) type else 0
+        counts[index]++
+        if (lastTimestamp != 0L && timestamp >= lastTimestamp) {
+            latencyBuckets[index][latencyBucket(timestamp - lastTimestamp)]++
+        }
+        lastTimestamp = timestamp
+    }
+
+    private fun writeEventAtom(timestamp: Long, type: Int) {
+        StatsLog.write(
+            StatsEvent.newBuilder()
+                .setAtomId(DOUBLE_TAP_NANOAPP_EVENT_REPORTED)
+                .writeLong(timestamp)
+                .writeInt(toAtomEventType(type))
+                .usePooledBuffer()
+                .build()
+        )
+    }
+
+    /** Power-of-two millisecond buckets: <1ms, <2ms, <4ms ... and an overflow bucket. */
+    private fun latencyBucket(deltaNanos: Long): Int {
+        val millis = deltaNanos / NANOS_PER_MILLI
+        return when {
+            millis <= 0L -> 0
+            else -> (Long.SIZE_BITS - java.lang.Long.numberOfLeadingZeros(millis))
+                .coerceAtMost(LATENCY_BUCKET_COUNT - 1)
+        }
+    }
+
+    private fun toAtomEventType(type: Int): Int = when (type) {
+        1 -> DoubleTapNanoappEventReported.Type.GATE_START.number
+        2 -> DoubleTapNanoappEventReported.Type.GATE_STOP.number
+        3 -> DoubleTapNanoappEventReported.Type.HIGH_IMU_ODR_START.number
+        4 -> DoubleTapNanoappEventReported.Type.HIGH_IMU_ODR_STOP.number
+        5 -> DoubleTapNanoappEventReported.Type.ML_PREDICTION_START.number
+        6 -> DoubleTapNanoappEventReported.Type.ML_PREDICTION_STOP.number
+        7 -> DoubleTapNanoappEventReported.Type.SINGLE_TAP.number
+        8 -> DoubleTapNanoappEventReported.Type.DOUBLE_TAP.number
+        else -> DoubleTapNanoappEventReported.Type.UNKNOWN.number
+    }
+
+    private fun readConfig() {
+        flushIntervalMillis = DeviceConfig.getLong(
+            DeviceConfig.NAMESPACE_SYSTEMUI,
+            COLUMBUS_TELEMETRY_FLUSH_INTERVAL_MS,
+            DEFAULT_FLUSH_INTERVAL_MS
+        ).coerceAtLeast(0L)
+    }
+
+    fun dump(pw: PrintWriter) {
+        pw.println("    Telemetry:")
+        synchronized(statsLock) {
+            pw.println("      pending=${writeIndex.get() - readIndex.get()} " +
+                "dropped=${dropped.get()} flushes=$flushes atoms=$atomsWritten " +
+                "flushIntervalMs=$flushIntervalMillis")
+            for (type in counts.indices) {
+                if (counts[type] == 0L) {
+                    continue
+                }
+                val name = DoubleTapNanoappEventReported.Type.forNumber(toAtomEventType(type))
+                pw.println("      $name: count=${counts[type]} " +
+                    "latencyMs=${latencyBuckets[type].joinToString(prefix = "[", postfix = "]")}")
+            }
+        }
+    }
+
+    companion object {
+        const val COLUMBUS_TELEMETRY_FLUSH_INTERVAL_MS = "columbus_telemetry_flush_interval_ms"
+
+        private const val DOUBLE_TAP_NANOAPP_EVENT_REPORTED = 100051
+        private const val BUFFER_SIZE = 256
+        private const val LATENCY_BUCKET_COUNT = 16
+        private const val NANOS_PER_MILLI = 1_000_000L
+        private const val DEFAULT_FLUSH_INTERVAL_MS = 60_000L
+    }
+}
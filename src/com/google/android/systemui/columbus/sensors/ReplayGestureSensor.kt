@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors
+
+import android.content.Context
+import android.hardware.Sensor
+import android.os.Build
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.SystemClock
+import android.os.SystemProperties
+import android.util.Log
+import com.android.internal.logging.UiEventLogger
+import com.android.systemui.statusbar.commandline.Command
+import com.google.android.systemui.columbus.ColumbusEvent
+import com.google.android.systemui.columbus.GestureLatencyTracer
+import java.io.File
+import java.io.IOException
+import java.io.PrintWriter
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Gesture sensor that feeds recorded accelerometer and gyroscope samples through the
+ * same recognizer as the AP sensor for this device, the [TapClassifierEngine] when a
+ * model is bundled for it and [TapRT] otherwise, so the whole Quick Tap pipeline from
+ * [GestureController] through ColumbusService gates and actions can be exercised
+ * reproducibly without touching the device.
+ *
+ * Traces are little endian: a header of magic `CLRT`, a version int, and the sampling
+ * interval in ns, followed by 21-byte records of sensor type (byte), timestamp in ns
+ * (long) and x, y, z (floats). Samples are only delivered while the sensor is listening,
+ * like the real sensors.
+ *
+ * `adb shell cmd statusbar columbus-replay <trace> [speed] [--compare]` replays a trace,
+ * at `speed` times real time or as fast as possible for 0, and reports throughput and the
+ * time spent dispatching each detected gesture. With `--compare` on a device with a
+ * bundled model, the trace is also fed to [TapRT] and the gestures of both recognizers
+ * are matched by trace timestamp, to validate the engine's features against TapRT. The command blocks its caller until the
+ * replay ends, so it must be registered with a background executor; gestures are still
+ * reported on [handler].
+ */
+class ReplayGestureSensor(
+    private val context: Context,
+    private val uiEventLogger: UiEventLogger,
+    private val handler: Handler,
+    private val latencyTracer: GestureLatencyTracer
+) : GestureSensor() {
+    private val replayThread = HandlerThread("ColumbusReplay").apply { start() }
+    private val replayHandler = Handler(replayThread.looper)
+    private var tap: TapRT? = null
+    /** TapRT run alongside the engine for `--compare`. */
+    private var reference: TapRT? = null
+    private val engine by lazy { TapClassifierEngine.create(context.assets, Build.DEVICE) }
+    @Volatile
+    private var listening = false
+
+    private var trace: ByteBuffer? = null
+    private var samplingIntervalNs = DEFAULT_SAMPLING_INTERVAL_NS
+    private var speed = 1f
+    private var firstTimestamp = 0L
+    private var startUptime = 0L
+    private var completion: CountDownLatch? = null
+    private val stats = Stats()
+
+    override fun isListening(): Boolean = listening
+
+    override fun startListening() {
+        listening = true
+        uiEventLogger.log(ColumbusEvent.COLUMBUS_MODE_HIGH_POWER_ACTIVE)
+    }
+
+    override fun stopListening() {
+        listening = false
+        uiEventLogger.log(ColumbusEvent.COLUMBUS_MODE_INACTIVE)
+    }
+
+    /** Starts replaying [file], returning a latch released once the trace ends. */
+    private fun replay(file: File, replaySpeed: Float, compare: Boolean): CountDownLatch? {
+        val buffer = try {
+            RandomAccessFile(file, "r").use {
+                it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length())
+            }.order(ByteOrder.LITTLE_ENDIAN)
+        } catch (e: IOException) {
+            Log.e(logTag, "Unable to open $file", e)
+            return null
+        }
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != TRACE_MAGIC ||
+            buffer.getInt() != TRACE_VERSION) {
+            Log.e(logTag, "Not a Columbus IMU trace: $file")
+            return null
+        }
+        val latch = CountDownLatch(1)
+        replayHandler.post {
+            completion?.countDown()
+            samplingIntervalNs = buffer.getLong()
+            trace = buffer
+            speed = replaySpeed
+            firstTimestamp = if (buffer.remaining() >= RECORD_SIZE) {
+                buffer.getLong(buffer.position() + 1)
+            } else {
+                0L
+            }
+            startUptime = SystemClock.uptimeMillis()
+            completion = latch
+            stats.reset()
+            engine?.setFrameInterval(samplingIntervalNs)
+            engine?.reset()
+            tap = if (engine == null) newTap() else null
+            reference = if (engine != null && compare) newTap() else null
+            replayHandler.removeCallbacks(replayRunnable)
+            replayRunnable.run()
+        }
+        return latch
+    }
+
+    private val replayRunnable: Runnable = Runnable {
+        val buffer = trace ?: return@Runnable
+        val recognizer = tap
+        val tapEngine = engine
+        val referenceTap = reference
+        if (recognizer == null && tapEngine == null) {
+            return@Runnable
+        }
+        while (buffer.remaining() >= RECORD_SIZE) {
+            val position = buffer.position()
+            val timestamp = buffer.getLong(position + 1)
+            if (speed > 0f) {
+                val due = startUptime + ((timestamp - firstTimestamp) / NANOS_PER_MILLI / speed).toLong()
+                if (due > SystemClock.uptimeMillis()) {
+                    replayHandler.postAtTime(replayRunnable, due)
+                    return@Runnable
+                }
+            }
+            val type = buffer.get().toInt()
+            buffer.getLong()
+            val x = buffer.getFloat()
+            val y = buffer.getFloat()
+            val z = buffer.getFloat()
+            if (!listening || !isSupportedSensorType(type)) {
+                stats.skipped++
+                continue
+            }
+            stats.samples++
+            val gesture = if (tapEngine != null) {
+                tapEngine.onSample(type, x, y, z, timestamp)
+            } else {
+                recognizer!!.updateData(type, x, y, z, timestamp, samplingIntervalNs, false)
+                recognizer.checkDoubleTapTiming(timestamp)
+            }
+            when (gesture) {
+                1 -> dispatch(1, false)
+                2 -> dispatch(2, true)
+            }
+            if (referenceTap != null) {
+                referenceTap.updateData(type, x, y, z, timestamp, samplingIntervalNs, false)
+                val expected = referenceTap.checkDoubleTapTiming(timestamp)
+                stats.recordComparison(gesture, expected, timestamp)
+            }
+        }
+        stats.wallMillis = SystemClock.uptimeMillis() - startUptime
+        trace = null
+        completion?.countDown()
+        completion = null
+    }
+
+    private fun dispatch(gesture: Int, isHapticConsumed: Boolean) {
+        val detected = SystemClock.elapsedRealtimeNanos()
+        handler.post {
+            latencyTracer.onGestureReported(detected)
+            reportGestureDetected(gesture, DetectionProperties(isHapticConsumed))
+            stats.recordGesture(gesture, SystemClock.elapsedRealtimeNanos() - detected)
+        }
+    }
+
+    /** Creates the `columbus-replay` command; see the class documentation. */
+    fun newCommand(): Command = ReplayCommand()
+
+    private fun isSupportedSensorType(type: Int): Boolean =
+        type == Sensor.TYPE_ACCELEROMETER || type == Sensor.TYPE_GYROSCOPE
+
+    private fun newTap(): TapRT =
+        TapRT(TAP_WINDOW_NS, context.assets, Build.MODEL).apply {
+            lowpassAcc.setPara(1f)
+            lowpassGyro.setPara(1f)
+            highpassAcc.setPara(0.05f)
+            highpassGyro.setPara(0.05f)
+            peakDetector.setMinNoiseTolerate(0.03f)
+            peakDetector.setWindowSize(64)
+            valleyDetection.setMinNoiseTolerate(0.015f)
+            valleyDetection.setWindowSize(64)
+            reset(false)
+        }
+
+    private class Stats {
+        var samples = 0L
+        var skipped = 0L
+        var wallMillis = 0L
+        var singleTaps = 0
+        var doubleTaps = 0
+        val dispatchNanos = LongArray(MAX_RECORDED_GESTURES)
+        var gestures = 0
+        var compared = false
+        val engineGestures = GestureLog()
+        val referenceGestures = GestureLog()
+
+        @Synchronized
+        fun reset() {
+            samples = 0L
+            skipped = 0L
+            wallMillis = 0L
+            singleTaps = 0
+            doubleTaps = 0
+            gestures = 0
+            compared = false
+            engineGestures.clear()
+            referenceGestures.clear()
+        }
+
+        @Synchronized
+        fun recordComparison(gesture: Int, expected: Int, timestamp: Long) {
+            compared = true
+            if (gesture == 1 || gesture == 2) {
+                engineGestures.add(gesture, timestamp)
+            }
+            if (expected == 1 || expected == 2) {
+                referenceGestures.add(expected, timestamp)
+            }
+        }
+
+        @Synchronized
+        fun recordGesture(gesture: Int, nanos: Long) {
+            when (gesture) {
+                1 -> singleTaps++
+                2 -> doubleTaps++
+            }
+            if (gestures < dispatchNanos.size) {
+                dispatchNanos[gestures++] = nanos
+            }
+        }
+
+        @Synchronized
+        fun dump(pw: PrintWriter) {
+            pw.println("samples=$samples skipped=$skipped wall=${wallMillis}ms " +
+                "throughput=${if (wallMillis > 0) samples * 1000 / wallMillis else samples}/s")
+            pw.println("singleTaps=$singleTaps doubleTaps=$doubleTaps")
+            if (gestures > 0) {
+                val sorted = dispatchNanos.copyOf(gestures).apply { sort() }
+                pw.println("dispatch: p50=${sorted[(gestures - 1) / 2] / 1000}us " +
+                    "p99=${sorted[(gestures - 1) * 99 / 100] / 1000}us")
+            }
+            if (compared) {
+                dumpComparison(pw)
+            }
+        }
+
+        /**
+         * Pairs each engine gesture with the first unpaired TapRT gesture of the same
+         * kind within [COMPARE_TOLERANCE_NS]; both logs are in trace order.
+         */
+        private fun dumpComparison(pw: PrintWriter) {
+            var matched = 0
+            var next = 0
+            val paired = BooleanArray(referenceGestures.size)
+            for (i in 0 until engineGestures.size) {
+                val timestamp = engineGestures.timestamps[i]
+                while (next < referenceGestures.size &&
+                    referenceGestures.timestamps[next] < timestamp - COMPARE_TOLERANCE_NS) {
+                    next++
+                }
+                var j = next
+                while (j < referenceGestures.size &&
+                    referenceGestures.timestamps[j] <= timestamp + COMPARE_TOLERANCE_NS) {
+                    if (!paired[j] && referenceGestures.types[j] == engineGestures.types[i]) {
+                        paired[j] = true
+                        matched++
+                        break
+                    }
+                    j++
+                }
+            }
+            pw.println("compare: engine=${engineGestures.size} taprt=${referenceGestures.size} " +
+                "matched=$matched engineOnly=${engineGestures.size - matched} " +
+                "taprtOnly=${referenceGestures.size - matched}")
+        }
+    }
+
+    private class GestureLog {
+        val types = IntArray(MAX_RECORDED_GESTURES)
+        val timestamps = LongArray(MAX_RECORDED_GESTURES)
+        var size = 0
+            private set
+
+        fun add(type: Int, timestamp: Long) {
+            if (size < types.size) {
+                types[size] = type
+                timestamps[size++] = timestamp
+            }
+        }
+
+        fun clear() {
+            size = 0
+        }
+    }
+
+    private inner class ReplayCommand : Command {
+        override fun execute(pw: PrintWriter, args: List<String>) {
+            val compare = COMPARE_FLAG in args
+            val positional = args.filter { it != COMPARE_FLAG }
+            val path = positional.getOrNull(0)
+            val replaySpeed = positional.getOrNull(1)?.toFloatOrNull() ?: 1f
+            if (path == null || replaySpeed < 0f) {
+                help(pw)
+                return
+            }
+            if (compare && engine == null) {
+                pw.println("No tap model for ${Build.DEVICE}; nothing to compare with TapRT")
+            }
+            val latch = replay(File(path), replaySpeed, compare)
+            if (latch == null) {
+                pw.println("Unable to read trace $path")
+                return
+            }
+            if (!latch.await(REPLAY_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                pw.println("Replay still running after $REPLAY_TIMEOUT_MINUTES minutes")
+                return
+            }
+            // Every gesture was posted to the handler before the latch was released, so
+            // once this barrier runs they have all reached ColumbusService.
+            val dispatched = CountDownLatch(1)
+            handler.post { dispatched.countDown() }
+            if (!dispatched.await(DISPATCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                pw.println("Gestures still dispatching after ${DISPATCH_TIMEOUT_MS}ms")
+            }
+            stats.dump(pw)
+        }
+
+        override fun help(pw: PrintWriter) {
+            pw.println("usage: $COMMAND_NAME <trace> [speed] [$COMPARE_FLAG]")
+            pw.println("  speed      multiple of real time, 0 to replay as fast as possible")
+            pw.println("  $COMPARE_FLAG  also run TapRT and match its gestures to the engine's")
+        }
+    }
+
+    companion object {
+        /** Debuggable builds use this sensor instead of the hardware ones when set. */
+        const val REPLAY_PROPERTY = "persist.debug.columbus.replay"
+        const val COMMAND_NAME = "columbus-replay"
+
+        private const val logTag = "Columbus/ReplaySensor"
+
+        /** "CLRT" read as a little endian int. */
+        private const val TRACE_MAGIC = 0x54524c43
+        private const val TRACE_VERSION = 1
+        private const val HEADER_SIZE = 16
+        private const val RECORD_SIZE = 21
+
+        private const val DEFAULT_SAMPLING_INTERVAL_NS = 2400000L
+        private const val TAP_WINDOW_NS = 153600000L
+        private const val NANOS_PER_MILLI = 1000000L
+        private const val MAX_RECORDED_GESTURES = 1024
+        private const val REPLAY_TIMEOUT_MINUTES = 10L
+        private const val DISPATCH_TIMEOUT_MS = 1000L
+        private const val COMPARE_FLAG = "--compare"
+        /** Gestures of the two recognizers this far apart in the trace still match. */
+        private const val COMPARE_TOLERANCE_NS = 50000000L
+
+        /** Whether the replay sensor replaces the hardware ones on this build. */
+        @JvmStatic
+        fun isEnabled(): Boolean =
+            Build.IS_DEBUGGABLE && SystemProperties.getBoolean(REPLAY_PROPERTY, false)
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors
+
+import android.os.Handler
+import android.os.SystemClock
+import com.google.android.systemui.columbus.gates.Gate
+import com.google.android.systemui.columbus.gates.PowerState
+import com.google.android.systemui.columbus.gates.KeyguardProximity
+import java.io.PrintWriter
+
+/**
+ * Chooses how promptly the AP Quick Tap sensor receives its IMU samples.
+ *
+ * The sensor idles with its full-rate samples batched in the sensor hub, which wakes the
+ * AP only a few times a second. A candidate tap switches to the high rate, live delivery,
+ * for [HIGH_RATE_HOLD_MS] after the last activity, like the nanoapp's
+ * HIGH_IMU_ODR_START/STOP. Candidates are ignored while the [PowerState] gate blocks, or
+ * while [keyguardProximity] reports the device covered, e.g. in a pocket.
+ *
+ * Proximity is only consulted when a candidate arrives, and never listened to: this
+ * reads the [KeyguardProximity] gate that GestureController's gate aggregator already
+ * keeps active, which only holds the proximity sensor while the keyguard is showing.
+ * Listening to proximity here would keep the sensor on for as long as Quick Tap is.
+ *
+ * Everything but [start] and [stop] runs on [bgHandler].
+ */
+class SamplingRateController(
+    private val bgHandler: Handler,
+    private val keyguardProximity: KeyguardProximity,
+    private val powerState: PowerState,
+    private val listener: Listener
+) {
+    fun interface Listener {
+        /** Called on the background handler whenever the rate changes. */
+        fun onSamplingRateChanged(highRate: Boolean)
+    }
+
+    var highRate = false
+        private set
+    private var running = false
+    private val timeAtRate = LongArray(2)
+    private var rateSince = 0L
+    private var switchesToHighRate = 0L
+    private var suppressedCandidates = 0L
+
+    private val dropToLowRate = Runnable { setHighRate(false) }
+    private val gateListener = object : Gate.Listener {
+        override fun onGateChanged(gate: Gate) {
+            bgHandler.post {
+                if (running && highRate && isSuppressed()) {
+                    bgHandler.removeCallbacks(dropToLowRate)
+                    setHighRate(false)
+                }
+            }
+        }
+    }
+
+    /** Starts in the low rate. Call on the main thread. */
+    fun start() {
+        powerState.registerListener(gateListener)
+        bgHandler.post {
+            running = true
+            rateSince = SystemClock.elapsedRealtime()
+            highRate = false
+            listener.onSamplingRateChanged(false)
+        }
+    }
+
+    /** Call on the main thread. */
+    fun stop() {
+        powerState.unregisterListener(gateListener)
+        bgHandler.post {
+            bgHandler.removeCallbacks(dropToLowRate)
+            accumulate()
+            running = false
+            highRate = false
+        }
+    }
+
+    /** The engine saw a candidate tap; raises the rate unless suppressed. */
+    fun onCandidateTap() {
+        if (!running) {
+            return
+        }
+        if (isSuppressed()) {
+            suppressedCandidates++
+            return
+        }
+        onTapActivity()
+        setHighRate(true)
+    }
+
+    /** Keeps the high rate up while the recognizer is still seeing taps. */
+    fun onTapActivity() {
+        bgHandler.removeCallbacks(dropToLowRate)
+        bgHandler.postDelayed(dropToLowRate, HIGH_RATE_HOLD_MS)
+    }
+
+    private fun isSuppressed(): Boolean =
+        powerState.isBlocking() || keyguardProximity.isBlocking()
+
+    private fun setHighRate(high: Boolean) {
+        if (!running || highRate == high) {
+            return
+        }
+        accumulate()
+        highRate = high
+        if (high) {
+            switchesToHighRate++
+        }
+        listener.onSamplingRateChanged(high)
+    }
+
+    private fun accumulate() {
+        if (!running) {
+            return
+        }
+        val now = SystemClock.elapsedRealtime()
+        timeAtRate[if (highRate) 1 else 0] += now - rateSince
+        rateSince = now
+    }
+
+    fun dump(pw: PrintWriter) {
+        val current = if (running) SystemClock.elapsedRealtime() - rateSince else 0L
+        val low = timeAtRate[0] + if (running && !highRate) current else 0L
+        val high = timeAtRate[1] + if (running && highRate) current else 0L
+        pw.println("    samplingRate=${if (highRate) "high" else "low"}")
+        pw.println("    timeAtLowRate=${low}ms timeAtHighRate=${high}ms " +
+            "switchesToHighRate=$switchesToHighRate suppressedCandidates=$suppressedCandidates")
+    }
+
+    companion object {
+        private const val HIGH_RATE_HOLD_MS = 2000L
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors
+
+import android.content.res.AssetManager
+import android.hardware.Sensor
+import android.util.Log
+import java.io.FileInputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+import java.nio.channels.FileChannel
+import kotlin.math.abs
+import org.tensorflow.lite.Interpreter
+
+/**
+ * AP-side Quick Tap recognizer for the bundled `tap7cls_<device>` models.
+ *
+ * Accelerometer and gyroscope samples are resampled onto a fixed frame clock and run
+ * through the same feature chain as TapRT: a slope, the per-frame difference scaled to
+ * the 2.4ms frames the models were trained on, then a low-pass and a high-pass filter.
+ * The features go into a direct [FloatBuffer] ring. Every channel is written twice,
+ * [WINDOW_SIZE] frames apart, so the latest window of a channel is always contiguous.
+ * The model only runs when a cheap peak detector on the z axis sees a candidate tap;
+ * the six channel windows are then bulk-copied into a reused input buffer for the
+ * persistent interpreter. Nothing is allocated per sample or per inference.
+ *
+ * Not thread safe: feed it from a single thread.
+ */
+class TapClassifierEngine private constructor(
+    private val interpreter: Interpreter,
+    val modelName: String
+) {
+    private val ring: FloatBuffer = ByteBuffer
+        .allocateDirect(CHANNELS * RING_STRIDE * Float.SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer()
+    private val channelViews = Array(CHANNELS) { ring.duplicate() }
+    private val input: ByteBuffer = ByteBuffer
+        .allocateDirect(CHANNELS * WINDOW_SIZE * Float.SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+    private val inputFloats = input.asFloatBuffer()
+    private val output = arrayOf(FloatArray(CLASSES))
+
+    private val latest = FloatArray(CHANNELS)
+    private val slopeLastX = FloatArray(CHANNELS)
+    private val lowpassLastY = FloatArray(CHANNELS)
+    private val lastX = FloatArray(CHANNELS)
+    private val lastY = FloatArray(CHANNELS)
+    private var gotGyro = false
+    private var frameIntervalNs = DEFAULT_FRAME_INTERVAL_NS
+    private var nextFrameNs = 0L
+    private var head = 0
+    private var frames = 0
+
+    private var previousZ = 0f
+    private var rising = false
+    private var framesUntilInference = -1
+    private var peakTimestampNs = 0L
+    private val tapTimestamps = LongArray(MAX_PENDING_TAPS)
+    private var pendingTaps = 0
+
+    var inferences = 0L
+        private set
+    var peaks = 0L
+        private set
+
+    /** Sets the resampled frame interval; the models were trained on 2.4ms frames. */
+    fun setFrameInterval(intervalNs: Long) {
+        frameIntervalNs = intervalNs
+    }
+
+    /**
+     * Consumes one sensor sample and returns [GESTURE_NONE], [GESTURE_SINGLE_TAP] or
+     * [GESTURE_DOUBLE_TAP].
+     */
+    fun onSample(sensorType: Int, x: Float, y: Float, z: Float, timestampNs: Long): Int {
+        when (sensorType) {
+            Sensor.TYPE_ACCELEROMETER -> {
+                latest[0] = x
+                latest[1] = y
+                latest[2] = z
+            }
+            Sensor.TYPE_GYROSCOPE -> {
+                latest[3] = x * GYRO_SCALE
+                latest[4] = y * GYRO_SCALE
+                latest[5] = z * GYRO_SCALE
+                gotGyro = true
+                return GESTURE_NONE
+            }
+            else -> return GESTURE_NONE
+        }
+        if (!gotGyro) {
+            return GESTURE_NONE
+        }
+        if (nextFrameNs == 0L || timestampNs - nextFrameNs > MAX_FRAME_GAP_NS) {
+            // Like TapRT on its first synchronized frame, seed the filters instead of
+            // producing a feature, so the slope does not see a jump from zero or across
+            // the gap.
+            initFilters()
+            nextFrameNs = timestampNs + frameIntervalNs
+        }
+        var gesture = GESTURE_NONE
+        while (nextFrameNs <= timestampNs) {
+            val result = pushFrame(nextFrameNs)
+            if (result != GESTURE_NONE) {
+                gesture = result
+            }
+            nextFrameNs += frameIntervalNs
+        }
+        return gesture
+    }
+
+    fun reset() {
+        latest.fill(0f)
+        initFilters()
+        gotGyro = false
+        nextFrameNs = 0L
+        head = 0
+        frames = 0
+        previousZ = 0f
+        rising = false
+        framesUntilInference = -1
+        pendingTaps = 0
+    }
+
+    fun release() {
+        interpreter.close()
+    }
+
+    private fun initFilters() {
+        latest.copyInto(slopeLastX)
+        lowpassLastY.fill(0f)
+        lastX.fill(0f)
+        lastY.fill(0f)
+    }
+
+    private fun pushFrame(frameNs: Long): Int {
+        val slopeScale = TRAINING_FRAME_INTERVAL_NS.toFloat() / frameIntervalNs
+        for (channel in 0 until CHANNELS) {
+            val slope = slope(channel, latest[channel], slopeScale)
+            val value = highpass(channel, lowpass(channel, slope))
+            val base = channel * RING_STRIDE
+            ring.put(base + head, value)
+            ring.put(base + head + WINDOW_SIZE, value)
+        }
+        head = (head + 1) % WINDOW_SIZE
+        if (frames < WINDOW_SIZE) {
+            frames++
+        }
+
+        val z = abs(lastY[2])
+        if (framesUntilInference < 0) {
+            if (rising && z < previousZ && previousZ > PEAK_THRESHOLD) {
+                peaks++
+                peakTimestampNs = frameNs
+                framesUntilInference = FRAMES_AFTER_PEAK
+            }
+            rising = z > previousZ
+        }
+        previousZ = z
+
+        if (framesUntilInference > 0) {
+            framesUntilInference--
+            return GESTURE_NONE
+        }
+        if (framesUntilInference < 0 || frames < WINDOW_SIZE) {
+            framesUntilInference = -1
+            return GESTURE_NONE
+        }
+        framesUntilInference = -1
+        return if (classify() == TAP_CLASS) onTap(peakTimestampNs) else GESTURE_NONE
+    }
+
+    private fun slope(channel: Int, x: Float, scale: Float): Float {
+        val scaled = x * scale
+        val delta = scaled - slopeLastX[channel]
+        slopeLastX[channel] = scaled
+        return delta
+    }
+
+    private fun lowpass(channel: Int, x: Float): Float {
+        if (LOWPASS_PARA == 1f) {
+            return x
+        }
+        val y = (1f - LOWPASS_PARA) * lowpassLastY[channel] + LOWPASS_PARA * x
+        lowpassLastY[channel] = y
+        return y
+    }
+
+    private fun highpass(channel: Int, x: Float): Float {
+        val y = HIGHPASS_PARA * lastY[channel] + HIGHPASS_PARA * (x - lastX[channel])
+        lastX[channel] = x
+        lastY[channel] = y
+        return y
+    }
+
+    private fun classify(): Int {
+        inputFloats.clear()
+        for (channel in 0 until CHANNELS) {
+            val start = channel * RING_STRIDE + head
+            val view = channelViews[channel]
+            view.limit(start + WINDOW_SIZE)
+            view.position(start)
+            inputFloats.put(view)
+        }
+        input.rewind()
+        interpreter.run(input, output)
+        inferences++
+        val scores = output[0]
+        var best = 0
+        for (i in 1 until scores.size) {
+            if (scores[i] > scores[best]) {
+                best = i
+            }
+        }
+        return best
+    }
+
+    private fun onTap(timestampNs: Long): Int {
+        var kept = 0
+        for (i in 0 until pendingTaps) {
+            if (timestampNs - tapTimestamps[i] <= DOUBLE_TAP_MAX_GAP_NS) {
+                tapTimestamps[kept++] = tapTimestamps[i]
+            }
+        }
+        pendingTaps = kept
+        if (pendingTaps > 0 && timestampNs - tapTimestamps[pendingTaps - 1] > DOUBLE_TAP_MIN_GAP_NS) {
+            pendingTaps = 0
+            return GESTURE_DOUBLE_TAP
+        }
+        if (pendingTaps == tapTimestamps.size) {
+            System.arraycopy(tapTimestamps, 1, tapTimestamps, 0, pendingTaps - 1)
+            pendingTaps--
+        }
+        tapTimestamps[pendingTaps++] = timestampNs
+        return GESTURE_SINGLE_TAP
+    }
+
+    companion object {
+        private const val logTag = "Columbus/TapEngine"
+
+        const val GESTURE_NONE = 0
+        const val GESTURE_SINGLE_TAP = 1
+        const val GESTURE_DOUBLE_TAP = 2
+
+        private const val CHANNELS = 6
+        private const val WINDOW_SIZE = 50
+        private const val RING_STRIDE = WINDOW_SIZE * 2
+        private const val CLASSES = 7
+        private const val TAP_CLASS = 1
+        private const val GYRO_SCALE = 10f
+        private const val LOWPASS_PARA = 1f
+        private const val HIGHPASS_PARA = 0.05f
+        private const val PEAK_THRESHOLD = 0.03f
+        /** Frames between the peak and the end of the window, as in TapRT. */
+        private const val FRAMES_AFTER_PEAK = 12
+        private const val MAX_PENDING_TAPS = 4
+        private const val TRAINING_FRAME_INTERVAL_NS = 2400000L
+        private const val DEFAULT_FRAME_INTERVAL_NS = TRAINING_FRAME_INTERVAL_NS
+        private const val MAX_FRAME_GAP_NS = 100000000L
+        private const val DOUBLE_TAP_MIN_GAP_NS = 100000000L
+        private const val DOUBLE_TAP_MAX_GAP_NS = 500000000L
+
+        private val DEVICE_MODELS = setOf("flame", "coral", "bramble", "redfin", "crosshatch")
+
+        /** Returns the bundled model for a device codename, or null if there is none. */
+        @JvmStatic
+        fun modelFor(device: String): String? =
+            if (device in DEVICE_MODELS) "tap7cls_$device.tflite" else null
+
+        /** Loads the model for [device], or returns null if none is bundled or it fails to load. */
+        @JvmStatic
+        fun create(am: AssetManager, device: String): TapClassifierEngine? {
+            val modelName = modelFor(device) ?: return null
+            return try {
+                am.openFd(modelName).use { fd ->
+                    FileInputStream(fd.fileDescriptor).use { stream ->
+                        val model = stream.channel.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            fd.startOffset,
+                            fd.declaredLength
+                        )
+                        val interpreter = Interpreter(model, Interpreter.Options().setNumThreads(1))
+                        interpreter.allocateTensors()
+                        TapClassifierEngine(interpreter, modelName)
+                    }
+                }
+            } catch (e: IOException) {
+                Log.e(logTag, "Unable to load $modelName", e)
+                null
+            } catch (e: IllegalArgumentException) {
+                // Thrown by the Interpreter for a corrupt or incompatible model.
+                Log.e(logTag, "Invalid model $modelName", e)
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors
+
+import com.android.internal.logging.UiEventLogger
+import com.android.systemui.statusbar.commandline.CommandRegistry
+import com.google.android.systemui.columbus.GestureLatencyTracer
+import com.google.android.systemui.columbus.gates.Gate
+import java.io.PrintWriter
+
+/** [GestureController] that stamps gestures passing its soft gates on the tracer. */
+class TracingGestureController(
+    gestureSensor: GestureSensor,
+    softGates: Set<Gate>,
+    commandRegistry: CommandRegistry,
+    uiEventLogger: UiEventLogger,
+    private val latencyTracer: GestureLatencyTracer
+) : GestureController(gestureSensor, softGates, commandRegistry, uiEventLogger) {
+    override fun setGestureListener(listener: GestureListener?) {
+        super.setGestureListener(listener?.let { latencyTracer.traceListener(it) })
+    }
+
+    override fun dump(pw: PrintWriter, args: Array<String>) {
+        super.dump(pw, args)
+        latencyTracer.dump(pw, args)
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors.config
+
+import android.content.Context
+import android.provider.DeviceConfig
+import com.android.systemui.statusbar.policy.BatteryController
+import java.util.concurrent.Executor
+
+/**
+ * Drops to the low sensitivity while plugged in, when handling the cable or a dock
+ * rattling the phone are the most likely source of taps.
+ *
+ * Off unless [COLUMBUS_LOW_SENSITIVITY_WHILE_CHARGING] is set. The flag is read on
+ * [bgExecutor]; the state is only touched on [mainExecutor].
+ */
+class ChargingAdjustment(
+    context: Context,
+    batteryController: BatteryController,
+    private val sensorConfiguration: SensorConfiguration,
+    private val mainExecutor: Executor,
+    bgExecutor: Executor
+) : Adjustment(context) {
+    private var enabled = false
+    private var pluggedIn = false
+
+    private val batteryStateChangeCallback =
+        object : BatteryController.BatteryStateChangeCallback {
+            override fun onBatteryLevelChanged(level: Int, plugged: Boolean, charging: Boolean) {
+                if (pluggedIn != plugged) {
+                    pluggedIn = plugged
+                    onSensitivityChanged()
+                }
+            }
+        }
+
+    init {
+        batteryController.addCallback(batteryStateChangeCallback)
+        DeviceConfig.addOnPropertiesChangedListener(
+            DeviceConfig.NAMESPACE_SYSTEMUI,
+            bgExecutor
+        ) { properties ->
+            if (properties.keyset.contains(COLUMBUS_LOW_SENSITIVITY_WHILE_CHARGING)) {
+                setEnabled(properties.getBoolean(COLUMBUS_LOW_SENSITIVITY_WHILE_CHARGING, false))
+            }
+        }
+        bgExecutor.execute {
+            setEnabled(
+                DeviceConfig.getBoolean(
+                    DeviceConfig.NAMESPACE_SYSTEMUI,
+                    COLUMBUS_LOW_SENSITIVITY_WHILE_CHARGING,
+                    false
+                )
+            )
+        }
+    }
+
+    private fun setEnabled(value: Boolean) {
+        mainExecutor.execute {
+            if (enabled != value) {
+                enabled = value
+                if (pluggedIn) {
+                    onSensitivityChanged()
+                }
+            }
+        }
+    }
+
+    override fun adjustSensitivity(sensitivity: Float): Float =
+        if (enabled && pluggedIn) sensorConfiguration.lowSensitivityValue else sensitivity
+
+    companion object {
+        const val COLUMBUS_LOW_SENSITIVITY_WHILE_CHARGING =
+            "columbus_low_sensitivity_while_charging"
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.columbus.sensors.config
+
+import android.os.Handler
+import android.os.SystemClock
+import android.util.Range
+import java.io.PrintWriter
+
+/**
+ * Folds any number of [Adjustment]s into the sensitivity sent to the recognizer, like
+ * [GestureConfiguration], but damped for sources that change often:
+ * - Adjustments that fire together are recomputed once, on the next main loop pass.
+ * - Two-threshold hysteresis around the last published value: a higher target is only
+ *   published once it reaches [RAISE_THRESHOLD] above it, and a lower one once it falls
+ *   [LOWER_THRESHOLD] below it. A value hovering around a switching point therefore
+ *   cannot flap back and forth. Lowering reacts sooner than raising, since it is the
+ *   direction that guards against false triggers.
+ * - At most one value is published per [MIN_UPDATE_INTERVAL_MS]; changes within the
+ *   interval are held back and only the latest is published when it ends.
+ *
+ * Runs on [mainHandler]; the listener is called there.
+ */
+class SensitivityPipeline(
+    private val adjustments: List<Adjustment>,
+    private val sensorConfiguration: SensorConfiguration,
+    private val mainHandler: Handler
+) {
+    fun interface Listener {
+        fun onSensitivityChanged(sensitivity: Float)
+    }
+
+    /** The last published value. */
+    var sensitivity = sensorConfiguration.defaultSensitivityValue
+        private set
+
+    private var listener: Listener? = null
+    private var recomputePending = false
+    private var publishPending = false
+    private var lastPublishMillis = 0L
+
+    private var recomputes = 0
+    private var withinHysteresis = 0
+    private var deferred = 0
+    private var coalesced = 0
+    private var published = 0
+
+    private val recompute = Runnable { recompute() }
+    private val publishDeferred = Runnable {
+        publishPending = false
+        recompute()
+    }
+
+    init {
+        adjustments.forEach { it.setCallback { scheduleRecompute() } }
+        sensitivity = computeTarget()
+    }
+
+    fun setListener(listener: Listener?) {
+        this.listener = listener
+    }
+
+    private fun scheduleRecompute() {
+        if (!recomputePending) {
+            recomputePending = true
+            mainHandler.post(recompute)
+        }
+    }
+
+    private fun recompute() {
+        recomputePending = false
+        recomputes++
+        if (publishPending) {
+            // The deferred publish recomputes with whatever is current then.
+            coalesced++
+            return
+        }
+        val target = computeTarget()
+        if (target < sensitivity + RAISE_THRESHOLD && target > sensitivity - LOWER_THRESHOLD) {
+            withinHysteresis++
+            return
+        }
+        val wait = lastPublishMillis + MIN_UPDATE_INTERVAL_MS - SystemClock.uptimeMillis()
+        if (lastPublishMillis != 0L && wait > 0) {
+            deferred++
+            publishPending = true
+            mainHandler.postDelayed(publishDeferred, wait)
+            return
+        }
+        sensitivity = target
+        lastPublishMillis = SystemClock.uptimeMillis()
+        published++
+        listener?.onSensitivityChanged(target)
+    }
+
+    private fun computeTarget(): Float {
+        var value = sensorConfiguration.defaultSensitivityValue
+        for (adjustment in adjustments) {
+            value = SENSITIVITY_RANGE.clamp(adjustment.adjustSensitivity(value))
+        }
+        return value
+    }
+
+    fun dump(pw: PrintWriter) {
+        pw.println("    SensitivityPipeline:")
+        pw.println("      sensitivity=$sensitivity adjustments=${adjustments.size}")
+        pw.println("      recomputes=$recomputes published=$published " +
+            "withinHysteresis=$withinHysteresis deferred=$deferred coalesced=$coalesced")
+    }
+
+    companion object {
+        private val SENSITIVITY_RANGE = Range.create(0f, 1f)
+
+        private const val RAISE_THRESHOLD = 0.08f
+        private const val LOWER_THRESHOLD = 0.03f
+        private const val MIN_UPDATE_INTERVAL_MS = 1000L
+    }
+}
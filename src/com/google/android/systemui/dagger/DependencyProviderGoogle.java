@@ -77,9 +77,9 @@ import com.google.android.systemui.assist.AssistManagerGoogle;
 import com.google.android.systemui.columbus.ColumbusModule;
 import com.google.android.systemui.columbus.ColumbusServiceWrapper;
 import com.google.android.systemui.controls.GoogleControlsTileResourceConfigurationImpl;
-import com.google.android.systemui.elmyra.ElmyraModule;
-import com.google.android.systemui.elmyra.ServiceConfigurationGoogle;
+import com.google.android.systemui.elmyra.ElmyraComponent;
 import com.google.android.systemui.face.FaceNotificationService;
+import com.google.android.systemui.gesture.SharedGestureModule;
 import com.google.android.systemui.power.PowerNotificationWarningsGoogleImpl;
 import com.google.android.systemui.power.batteryhealth.HealthManager;
 import com.google.android.systemui.power.batteryhealth.HealthService;
@@ -106,7 +106,10 @@ import dagger.Provides;
     includes = {
         AssistGoogleModule.class,
         ColumbusModule.class,
-        ElmyraModule.class
+        SharedGestureModule.class
+    },
+    subcomponents = {
+        ElmyraComponent.class
     })
 public interface DependencyProviderGoogle {
     @Provides
@@ -275,14 +278,14 @@ public interface DependencyProviderGoogle {
     @SysUISingleton
     static GoogleServices provideGoogleServices(
             Context context,
-            Lazy<ServiceConfigurationGoogle> serviceConfigurationGoogleLazy,
+            ElmyraComponent.Factory elmyraComponentFactory,
             UiEventLogger uiEventLogger,
             Lazy<ColumbusServiceWrapper> columbusServiceLazy,
             AutorotateDataService autorotateDataService,
             Lazy<FaceNotificationService> faceNotificationService) {
         return new GoogleServices(
                 context,
-                serviceConfigurationGoogleLazy,
+                elmyraComponentFactory,
                 uiEventLogger,
                 columbusServiceLazy,
                 autorotateDataService,
@@ -44,7 +44,9 @@ import com.android.systemui.util.NotificationChannels
 import com.android.systemui.util.leak.GarbageMonitor
 import com.android.systemui.volume.VolumeUI
 import com.android.systemui.wmshell.WMShell
+import com.google.android.systemui.GoogleDebugCommands
 import com.google.android.systemui.GoogleServices
+import com.google.android.systemui.gesture.BackGestureModelRegistry
 import com.google.android.systemui.smartspace.KeyguardSmartspaceStartable
 import com.google.android.systemui.theme.ThemeOverlayControllerGoogle
 import com.google.android.systemui.vpn.VpnNetworkMonitor
@@ -225,6 +227,18 @@ abstract class SysUIGoogleCoreStartableModule {
     @ClassKey(KeyguardSmartspaceStartable::class)
     abstract fun bindKeyguardSmartspaceStartable(sysui: KeyguardSmartspaceStartable): CoreStartable
 
+    /** Inject into BackGestureModelRegistry. */
+    @Binds
+    @IntoMap
+    @ClassKey(BackGestureModelRegistry::class)
+    abstract fun bindBackGestureModelRegistry(sysui: BackGestureModelRegistry): CoreStartable
+
+    /** Inject into GoogleDebugCommands. */
+    @Binds
+    @IntoMap
+    @ClassKey(GoogleDebugCommands::class)
+    abstract fun bindGoogleDebugCommands(sysui: GoogleDebugCommands): CoreStartable
+
     /** Inject into KeyguardSmartspaceStartable. */
     @Binds
     @IntoMap
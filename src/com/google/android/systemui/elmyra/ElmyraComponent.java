@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.systemui.elmyra;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+
+import javax.inject.Scope;
+
+import dagger.Subcomponent;
+
+/**
+ * Everything the squeeze gesture needs, built only by GoogleServices once the device
+ * has been found to have Elmyra hardware. Nothing in the SysUI graph depends on it, so
+ * devices without squeeze never construct any of it.
+ */
+@ElmyraComponent.ElmyraScope
+@Subcomponent(modules = {ElmyraModule.class})
+public interface ElmyraComponent {
+    @Subcomponent.Factory
+    interface Factory {
+        ElmyraComponent create();
+    }
+
+    SharedServiceConfiguration getServiceConfiguration();
+
+    /** Scope of the squeeze gesture's gates, actions and effects. */
+    @Documented
+    @Retention(RUNTIME)
+    @Scope
+    @interface ElmyraScope {}
+}
@@ -17,37 +17,34 @@ package com.google.android.systemui.elmyra;
 
 import android.content.Context;
 
-import com.android.systemui.dagger.SysUISingleton;
 import com.android.systemui.keyguard.KeyguardViewMediator;
 import com.android.systemui.navigationbar.NavigationModeController;
 import com.android.systemui.statusbar.phone.CentralSurfaces;
-import com.android.systemui.statusbar.policy.HeadsUpManager;
 import com.android.systemui.statusbar.policy.KeyguardStateController;
-import com.android.systemui.telephony.TelephonyListenerManager;
 import com.google.android.systemui.assist.AssistManagerGoogle;
-import com.google.android.systemui.elmyra.ServiceConfigurationGoogle;
 import com.google.android.systemui.elmyra.actions.CameraAction;
 import com.google.android.systemui.elmyra.actions.LaunchOpa;
-import com.google.android.systemui.elmyra.actions.UnpinNotifications;
+import com.google.android.systemui.elmyra.actions.UnpinPinnedHeadsUp;
 import com.google.android.systemui.elmyra.actions.SettingsAction;
 import com.google.android.systemui.elmyra.actions.SetupWizardAction;
-import com.google.android.systemui.elmyra.actions.SilenceCall;
+import com.google.android.systemui.elmyra.actions.SilenceRingingCall;
 import com.google.android.systemui.elmyra.feedback.AssistInvocationEffect;
 import com.google.android.systemui.elmyra.feedback.OpaHomeButton;
 import com.google.android.systemui.elmyra.feedback.OpaLockscreen;
 import com.google.android.systemui.elmyra.feedback.SquishyNavigationButtons;
-import com.google.android.systemui.elmyra.gates.TelephonyActivity;
-
-import java.util.Optional;
+import com.google.android.systemui.elmyra.gates.CallStateGate;
+import com.google.android.systemui.gesture.CallStateSource;
+import com.google.android.systemui.gesture.HeadsUpSource;
 
 import dagger.Module;
 import dagger.Provides;
 
+/** Provisions {@link ElmyraComponent}; not installed in the SysUI component itself. */
 @Module
 public interface ElmyraModule {
     @Provides
-    @SysUISingleton
-    static ServiceConfigurationGoogle provideServiceConfigurationGoogle(
+    @ElmyraComponent.ElmyraScope
+    static SharedServiceConfiguration provideServiceConfiguration(
             Context context,
             AssistInvocationEffect assistInvocationEffect,
             LaunchOpa.Builder launchOpaBuilder,
@@ -55,10 +52,10 @@ public interface ElmyraModule {
             CameraAction.Builder cameraActionBuilder,
             SetupWizardAction.Builder setupWizardActionBuilder,
             SquishyNavigationButtons squishyNavigationButtons,
-            UnpinNotifications unpinNotifications,
-            SilenceCall silenceCall,
-            TelephonyActivity telephonyActivity) {
-        return new ServiceConfigurationGoogle(
+            UnpinPinnedHeadsUp unpinNotifications,
+            SilenceRingingCall silenceCall,
+            CallStateGate callStateGate) {
+        return new SharedServiceConfiguration(
                 context,
                 assistInvocationEffect,
                 launchOpaBuilder,
@@ -68,11 +65,11 @@ public interface ElmyraModule {
                 squishyNavigationButtons,
                 unpinNotifications,
                 silenceCall,
-                telephonyActivity);
+                callStateGate);
     }
 
     @Provides
-    @SysUISingleton
+    @ElmyraComponent.ElmyraScope
     static AssistInvocationEffect provideAssistInvocationEffectElmyra(
             AssistManagerGoogle assistManagerGoogle,
             OpaHomeButton opaHomeButton,
@@ -81,7 +78,7 @@ public interface ElmyraModule {
     }
 
     @Provides
-    @SysUISingleton
+    @ElmyraComponent.ElmyraScope
     static OpaHomeButton provideOpaHomeButton(
             KeyguardViewMediator keyguardViewMediator,
             CentralSurfaces centralSurfaces,
@@ -90,7 +87,7 @@ public interface ElmyraModule {
     }
 
     @Provides
-    @SysUISingleton
+    @ElmyraComponent.ElmyraScope
     static OpaLockscreen provideOpaLockscreen(
             CentralSurfaces centralSurfaces,
             KeyguardStateController keyguardStateController) {
@@ -98,7 +95,7 @@ public interface ElmyraModule {
     }
 
     @Provides
-    @SysUISingleton
+    @ElmyraComponent.ElmyraScope
     static SquishyNavigationButtons provideSquishyNavigationButtons(
             Context context,
             KeyguardViewMediator keyguardViewMediator,
@@ -112,49 +109,49 @@ public interface ElmyraModule {
     }
 
     @Provides
-    @SysUISingleton
-    static TelephonyActivity provideTelephonyActivityElmyra(
-            Context context, TelephonyListenerManager telephonyListenerManager) {
-        return new TelephonyActivity(context, telephonyListenerManager);
+    @ElmyraComponent.ElmyraScope
+    static CallStateGate provideCallStateGateElmyra(
+            Context context, CallStateSource callStateSource) {
+        return new CallStateGate(context, callStateSource);
     }
 
     @Provides
-    @SysUISingleton
+    @ElmyraComponent.ElmyraScope
     static SetupWizardAction.Builder provideSetupWizardAction(
             Context context, CentralSurfaces centralSurfaces) {
         return new SetupWizardAction.Builder(context, centralSurfaces);
     }
 
     @Provides
-    @SysUISingleton
-    static UnpinNotifications provideUnpinNotificationsElmyra(
-            Context context, Optional<HeadsUpManager> headsUpManagerOptional) {
-        return new UnpinNotifications(context, headsUpManagerOptional);
+    @ElmyraComponent.ElmyraScope
+    static UnpinPinnedHeadsUp provideUnpinNotificationsElmyra(
+            Context context, HeadsUpSource headsUpSource) {
+        return new UnpinPinnedHeadsUp(context, headsUpSource);
     }
 
     @Provides
-    @SysUISingleton
+    @ElmyraComponent.ElmyraScope
     static LaunchOpa.Builder provideLaunchOpaElmyra(
             Context context, CentralSurfaces centralSurfaces) {
         return new LaunchOpa.Builder(context, centralSurfaces);
     }
 
     @Provides
-    @SysUISingleton
-    static SilenceCall provideSilenceCallElmyra(
-            Context context, TelephonyListenerManager telephonyListenerManager) {
-        return new SilenceCall(context, telephonyListenerManager);
+    @ElmyraComponent.ElmyraScope
+    static SilenceRingingCall provideSilenceCallElmyra(
+            Context context, CallStateSource callStateSource) {
+        return new SilenceRingingCall(context, callStateSource);
     }
 
     @Provides
-    @SysUISingleton
+    @ElmyraComponent.ElmyraScope
     static SettingsAction.Builder provideSettingsActionElmyra(
             Context context, CentralSurfaces centralSurfaces) {
         return new SettingsAction.Builder(context, centralSurfaces);
     }
 
     @Provides
-    @SysUISingleton
+    @ElmyraComponent.ElmyraScope
     static CameraAction.Builder provideCameraAction(
             Context context, CentralSurfaces centralSurfaces) {
         return new CameraAction.Builder(context, centralSurfaces);
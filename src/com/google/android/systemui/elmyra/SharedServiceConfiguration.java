@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.systemui.elmyra;
+
+import android.content.Context;
+
+import com.google.android.systemui.elmyra.actions.Action;
+import com.google.android.systemui.elmyra.actions.CameraAction;
+import com.google.android.systemui.elmyra.actions.DismissTimer;
+import com.google.android.systemui.elmyra.actions.LaunchOpa;
+import com.google.android.systemui.elmyra.actions.SettingsAction;
+import com.google.android.systemui.elmyra.actions.SetupWizardAction;
+import com.google.android.systemui.elmyra.actions.SilenceRingingCall;
+import com.google.android.systemui.elmyra.actions.SnoozeAlarm;
+import com.google.android.systemui.elmyra.actions.UnpinPinnedHeadsUp;
+import com.google.android.systemui.elmyra.feedback.AssistInvocationEffect;
+import com.google.android.systemui.elmyra.feedback.FeedbackEffect;
+import com.google.android.systemui.elmyra.feedback.HapticClick;
+import com.google.android.systemui.elmyra.feedback.NavUndimEffect;
+import com.google.android.systemui.elmyra.feedback.SquishyNavigationButtons;
+import com.google.android.systemui.elmyra.feedback.UserActivity;
+import com.google.android.systemui.elmyra.gates.CallStateGate;
+import com.google.android.systemui.elmyra.gates.CameraVisibility;
+import com.google.android.systemui.elmyra.gates.ChargingState;
+import com.google.android.systemui.elmyra.gates.Gate;
+import com.google.android.systemui.elmyra.gates.KeyguardDeferredSetup;
+import com.google.android.systemui.elmyra.gates.KeyguardProximity;
+import com.google.android.systemui.elmyra.gates.LockTask;
+import com.google.android.systemui.elmyra.gates.NavigationBarVisibility;
+import com.google.android.systemui.elmyra.gates.PowerSaveState;
+import com.google.android.systemui.elmyra.gates.SetupWizard;
+import com.google.android.systemui.elmyra.gates.SystemKeyPress;
+import com.google.android.systemui.elmyra.gates.UsbState;
+import com.google.android.systemui.elmyra.gates.VrMode;
+import com.google.android.systemui.elmyra.gates.WakeMode;
+import com.google.android.systemui.elmyra.sensors.CHREGestureSensor;
+import com.google.android.systemui.elmyra.sensors.GestureSensor;
+import com.google.android.systemui.elmyra.sensors.JNIGestureSensor;
+import com.google.android.systemui.elmyra.sensors.config.Adjustment;
+import com.google.android.systemui.elmyra.sensors.config.GestureConfiguration;
+import com.google.android.systemui.elmyra.sensors.config.ScreenStateAdjustment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The squeeze configuration of {@link ServiceConfigurationGoogle}, with the call state
+ * gate, silence and unpin actions built on the call state and heads up sources shared
+ * with quick tap.
+ */
+public class SharedServiceConfiguration implements ServiceConfiguration {
+    private final List<Action> mActions;
+    private final List<FeedbackEffect> mFeedbackEffects;
+    private final List<Gate> mGates;
+    private final GestureSensor mGestureSensor;
+
+    public SharedServiceConfiguration(
+            Context context,
+            AssistInvocationEffect assistInvocationEffect,
+            LaunchOpa.Builder launchOpaBuilder,
+            SettingsAction.Builder settingsActionBuilder,
+            CameraAction.Builder cameraActionBuilder,
+            SetupWizardAction.Builder setupWizardActionBuilder,
+            SquishyNavigationButtons squishyNavigationButtons,
+            UnpinPinnedHeadsUp unpinNotifications,
+            SilenceRingingCall silenceCall,
+            CallStateGate callStateGate) {
+        LaunchOpa launchOpa = launchOpaBuilder.addFeedbackEffect(assistInvocationEffect).build();
+        SettingsAction settingsAction = settingsActionBuilder.setLaunchOpa(launchOpa).build();
+        List<Action> exceptions = Arrays.asList(
+                new DismissTimer(context),
+                new SnoozeAlarm(context),
+                silenceCall,
+                settingsAction);
+        CameraAction cameraAction =
+                cameraActionBuilder.addFeedbackEffect(assistInvocationEffect).build();
+
+        mActions = new ArrayList<>();
+        mActions.addAll(exceptions);
+        mActions.add(unpinNotifications);
+        mActions.add(cameraAction);
+        mActions.add(setupWizardActionBuilder
+                .setSettingsAction(settingsAction)
+                .setLaunchOpa(launchOpa)
+                .build());
+        mActions.add(launchOpa);
+
+        mFeedbackEffects = new ArrayList<>();
+        mFeedbackEffects.add(new HapticClick(context));
+        mFeedbackEffects.add(squishyNavigationButtons);
+        mFeedbackEffects.add(new NavUndimEffect());
+        mFeedbackEffects.add(new UserActivity(context));
+
+        mGates = new ArrayList<>();
+        mGates.add(new WakeMode(context));
+        mGates.add(new ChargingState(context));
+        mGates.add(new UsbState(context));
+        mGates.add(new KeyguardProximity(context));
+        mGates.add(new SetupWizard(context, Collections.singletonList(settingsAction)));
+        mGates.add(new NavigationBarVisibility(context, exceptions));
+        mGates.add(new SystemKeyPress(context));
+        mGates.add(callStateGate);
+        mGates.add(new VrMode(context));
+        mGates.add(new KeyguardDeferredSetup(context, exceptions));
+        mGates.add(new CameraVisibility(context, cameraAction, exceptions));
+        mGates.add(new PowerSaveState(context));
+        mGates.add(new LockTask(context));
+
+        List<Adjustment> adjustments = new ArrayList<>();
+        adjustments.add(new ScreenStateAdjustment(context));
+        GestureConfiguration gestureConfiguration = new GestureConfiguration(context, adjustments);
+        if (JNIGestureSensor.isAvailable(context)) {
+            mGestureSensor = new JNIGestureSensor(context, gestureConfiguration);
+        } else {
+            mGestureSensor = new CHREGestureSensor(
+                    context, gestureConfiguration, new SnapshotConfiguration(context));
+        }
+    }
+
+    @Override
+    public List<Action> getActions() {
+        return mActions;
+    }
+
+    @Override
+    public List<FeedbackEffect> getFeedbackEffects() {
+        return mFeedbackEffects;
+    }
+
+    @Override
+    public List<Gate> getGates() {
+        return mGates;
+    }
+
+    @Override
+    public GestureSensor getGestureSensor() {
+        return mGestureSensor;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.systemui.elmyra.actions;
+
+import android.content.Context;
+import android.os.UserHandle;
+import android.provider.Settings;
+
+import com.google.android.systemui.elmyra.UserContentObserver;
+import com.google.android.systemui.elmyra.sensors.GestureSensor;
+import com.google.android.systemui.gesture.CallStateSource;
+
+/**
+ * Silences the ringer of an incoming call, like {@link SilenceCall}, but follows the
+ * {@link CallStateSource} shared with quick tap instead of its own telephony listener.
+ * It only listens while the squeeze silence setting is enabled.
+ */
+public class SilenceRingingCall extends Action {
+    private static final String SETTING = "assist_gesture_silence_alerts_enabled";
+
+    private final CallStateSource mCallStateSource;
+    private final UserContentObserver mSettingsObserver;
+    private boolean mSilenceSettingEnabled;
+    private boolean mIsPhoneRinging;
+
+    private final CallStateSource.Listener mCallStateListener = callState -> {
+        boolean ringing = mCallStateSource.isRinging();
+        if (ringing != mIsPhoneRinging) {
+            mIsPhoneRinging = ringing;
+            notifyListener();
+        }
+    };
+
+    public SilenceRingingCall(Context context, CallStateSource callStateSource) {
+        super(context, null);
+        mCallStateSource = callStateSource;
+        updatePhoneStateListener();
+        mSettingsObserver = new UserContentObserver(
+                getContext(),
+                Settings.Secure.getUriFor(SETTING),
+                uri -> updatePhoneStateListener());
+    }
+
+    private void updatePhoneStateListener() {
+        boolean enabled = Settings.Secure.getIntForUser(
+                getContext().getContentResolver(), SETTING, 1, UserHandle.USER_CURRENT) != 0;
+        if (enabled == mSilenceSettingEnabled) {
+            return;
+        }
+        mSilenceSettingEnabled = enabled;
+        if (enabled) {
+            mCallStateSource.addListener(mCallStateListener);
+        } else {
+            mCallStateSource.removeListener(mCallStateListener);
+        }
+        mIsPhoneRinging = mCallStateSource.isRinging();
+        notifyListener();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return mSilenceSettingEnabled && mIsPhoneRinging;
+    }
+
+    @Override
+    public void onTrigger(GestureSensor.DetectionProperties detectionProperties) {
+        mCallStateSource.silenceRinger();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " [mSilenceSettingEnabled -> " + mSilenceSettingEnabled + "]";
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.elmyra.actions;
+
+import android.content.Context;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+
+import com.google.android.systemui.elmyra.UserContentObserver;
+import com.google.android.systemui.elmyra.sensors.GestureSensor;
+import com.google.android.systemui.gesture.HeadsUpSource;
+
+/**
+ * Unpins heads up notifications, like {@link UnpinNotifications}, but follows the
+ * {@link HeadsUpSource} shared with quick tap instead of its own heads up listener.
+ * It only listens while the squeeze silence setting is enabled.
+ */
+public class UnpinPinnedHeadsUp extends Action {
+    private static final String TAG = "Elmyra/UnpinNotifications";
+    private static final String SETTING = "assist_gesture_silence_alerts_enabled";
+
+    private final HeadsUpSource mHeadsUpSource;
+    private final UserContentObserver mSettingsObserver;
+    private boolean mSilenceSettingEnabled;
+    private boolean mHasPinnedHeadsUp;
+
+    private final HeadsUpSource.Listener mHeadsUpListener = hasPinnedHeadsUp -> {
+        if (hasPinnedHeadsUp != mHasPinnedHeadsUp) {
+            mHasPinnedHeadsUp = hasPinnedHeadsUp;
+            notifyListener();
+        }
+    };
+
+    public UnpinPinnedHeadsUp(Context context, HeadsUpSource headsUpSource) {
+        super(context, null);
+        mHeadsUpSource = headsUpSource;
+        if (headsUpSource.isSupported()) {
+            updateHeadsUpListener();
+            mSettingsObserver = new UserContentObserver(
+                    getContext(),
+                    Settings.Secure.getUriFor(SETTING),
+                    uri -> updateHeadsUpListener());
+        } else {
+            mSettingsObserver = null;
+            Log.w(TAG, "No HeadsUpManager");
+        }
+    }
+
+    private void updateHeadsUpListener() {
+        boolean enabled = Settings.Secure.getIntForUser(
+                getContext().getContentResolver(), SETTING, 1, UserHandle.USER_CURRENT) != 0;
+        if (enabled == mSilenceSettingEnabled) {
+            return;
+        }
+        mSilenceSettingEnabled = enabled;
+        if (enabled) {
+            mHeadsUpSource.addListener(mHeadsUpListener);
+            mHasPinnedHeadsUp = mHeadsUpSource.getHasPinnedHeadsUp();
+        } else {
+            mHeadsUpSource.removeListener(mHeadsUpListener);
+            mHasPinnedHeadsUp = false;
+        }
+        notifyListener();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return mSilenceSettingEnabled && mHasPinnedHeadsUp;
+    }
+
+    @Override
+    public void onTrigger(GestureSensor.DetectionProperties detectionProperties) {
+        mHeadsUpSource.unpinAll();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " [mSilenceSettingEnabled -> " + mSilenceSettingEnabled + "]";
+    }
+}
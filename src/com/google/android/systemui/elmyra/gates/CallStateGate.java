@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.systemui.elmyra.gates;
+
+import android.content.Context;
+
+import com.google.android.systemui.gesture.CallStateSource;
+
+/**
+ * Blocks while a call is off hook, like {@link TelephonyActivity}, but follows the
+ * {@link CallStateSource} shared with quick tap instead of its own telephony listener.
+ */
+public class CallStateGate extends Gate {
+    private final CallStateSource mCallStateSource;
+    private boolean mIsCallBlocked;
+
+    private final CallStateSource.Listener mCallStateListener = callState -> {
+        boolean blocked = mCallStateSource.isOffHook();
+        if (blocked != mIsCallBlocked) {
+            mIsCallBlocked = blocked;
+            notifyListener();
+        }
+    };
+
+    public CallStateGate(Context context, CallStateSource callStateSource) {
+        super(context);
+        mCallStateSource = callStateSource;
+    }
+
+    @Override
+    protected void onActivate() {
+        mCallStateSource.addListener(mCallStateListener);
+        mIsCallBlocked = mCallStateSource.isOffHook();
+    }
+
+    @Override
+    protected void onDeactivate() {
+        mCallStateSource.removeListener(mCallStateListener);
+    }
+
+    @Override
+    protected boolean isBlocked() {
+        return mIsCallBlocked;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.gesture
+
+import android.content.res.AssetManager
+import android.os.Debug
+import android.os.SystemClock
+import com.android.systemui.statusbar.commandline.Command
+import java.io.PrintWriter
+
+/**
+ * `adb shell cmd statusbar back-gesture-bench [iterations] [batch]`
+ *
+ * Measures vocab load time (the original String parse against the prebuilt and the
+ * runtime-sorted index), per-call predict() latency (p50/p99), bytes allocated per
+ * prediction and single versus batched inference for every bundled back gesture model,
+ * against the assets actually shipped in the APK.
+ */
+class BackGestureBenchmarkCommand(
+    private val am: AssetManager,
+    private val modelNames: List<String>,
+    private val optionsFor: (String) -> BackGestureInferenceOptions
+) : Command {
+    override fun execute(pw: PrintWriter, args: List<String>) {
+        val iterations = args.getOrNull(0)?.toIntOrNull() ?: DEFAULT_ITERATIONS
+        val batchSize = args.getOrNull(1)?.toIntOrNull() ?: DEFAULT_BATCH
+        if (iterations <= 0 || batchSize <= 0) {
+            help(pw)
+            return
+        }
+        modelNames.forEach { benchmark(pw, it, iterations, batchSize) }
+    }
+
+    override fun help(pw: PrintWriter) {
+        pw.println("usage: back-gesture-bench [iterations] [batch]")
+        pw.println("  iterations  predictions per measurement (default $DEFAULT_ITERATIONS)")
+        pw.println("  batch       candidates per batched inference (default $DEFAULT_BATCH)")
+    }
+
+    @Suppress("DEPRECATION")
+    private fun benchmark(pw: PrintWriter, modelName: String, iterations: Int, batchSize: Int) {
+        pw.println("$modelName:")
+        val vocabFile = "$modelName.vocab"
+        val parsed = timed { parseVocab(vocabFile) }
+        val indexed = timed { BackGestureVocab.load(am, vocabFile) }
+        val sorted = timed { BackGestureVocab.load(am, vocabFile, useIndex = false) }
+        pw.println("  vocab: ${indexed.first.size} tokens, " +
+            "parse=${micros(parsed.second)}us " +
+            "indexed=${micros(indexed.second)}us " +
+            "sorted=${micros(sorted.second)}us")
+
+        val options = optionsFor(modelName)
+        pw.println("  options: $options")
+        val provider = BackGestureTfClassifierProviderGoogle(am, modelName, options)
+        try {
+            val features = provider.newFeaturesVector()
+            if (features == null) {
+                pw.println("  model failed to load")
+                return
+            }
+            repeat(WARM_UP_ITERATIONS) { provider.predict(features) }
+            val samples = LongArray(iterations)
+            Debug.startAllocCounting()
+            Debug.resetThreadAllocSize()
+            for (i in samples.indices) {
+                val start = SystemClock.elapsedRealtimeNanos()
+                provider.predict(features)
+                samples[i] = SystemClock.elapsedRealtimeNanos() - start
+            }
+            val allocated = Debug.getThreadAllocSize()
+            Debug.stopAllocCounting()
+            samples.sort()
+            pw.println("  single: p50=${micros(percentile(samples, 50))}us " +
+                "p99=${micros(percentile(samples, 99))}us " +
+                "alloc=${allocated / iterations}B/prediction")
+
+            val batch = provider.newBatch(batchSize) ?: return
+            batch.size = batchSize
+            repeat(WARM_UP_ITERATIONS) { provider.predict(batch) }
+            for (i in samples.indices) {
+                val start = SystemClock.elapsedRealtimeNanos()
+                provider.predict(batch)
+                samples[i] = SystemClock.elapsedRealtimeNanos() - start
+            }
+            samples.sort()
+            pw.println("  batch[$batchSize]: p50=${micros(percentile(samples, 50))}us " +
+                "p99=${micros(percentile(samples, 99))}us " +
+                "perCandidate=${micros(percentile(samples, 50) / batchSize)}us")
+        } finally {
+            provider.release()
+        }
+    }
+
+    /** The String and HashMap parse that the vocabulary index replaced. */
+    private fun parseVocab(vocabFile: String): Map<String, Int> =
+        am.open(vocabFile).use { input ->
+            String(input.readBytes()).lines().asSequence()
+                .withIndex().map { it.value to it.index }.toMap()
+        }
+
+    private inline fun <T> timed(block: () -> T): Pair<T, Long> {
+        val start = SystemClock.elapsedRealtimeNanos()
+        val result = block()
+        return result to SystemClock.elapsedRealtimeNanos() - start
+    }
+
+    private fun percentile(sorted: LongArray, percent: Int): Long =
+        sorted[((sorted.size - 1) * percent) / 100]
+
+    private fun micros(nanos: Long): Long = nanos / 1000
+
+    companion object {
+        const val NAME = "back-gesture-bench"
+        private const val DEFAULT_ITERATIONS = 1000
+        private const val DEFAULT_BATCH = 8
+        private const val WARM_UP_ITERATIONS = 50
+    }
+}
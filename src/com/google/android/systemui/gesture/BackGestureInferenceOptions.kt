@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.gesture
+
+import android.provider.DeviceConfig
+import org.tensorflow.lite.Interpreter
+
+/** Interpreter settings for a back gesture model. */
+data class BackGestureInferenceOptions(
+    val numThreads: Int,
+    val useXnnpack: Boolean,
+    val allowFp16: Boolean
+) {
+    fun toInterpreterOptions(): Interpreter.Options =
+        Interpreter.Options()
+            .setNumThreads(numThreads)
+            .setUseXNNPACK(useXnnpack)
+            .setAllowFp16PrecisionForFp32(allowFp16)
+
+    override fun toString(): String =
+        "threads=$numThreads xnnpack=$useXnnpack fp16=$allowFp16"
+
+    companion object {
+        /**
+         * The small model runs fastest single-threaded on XNNPACK, the large one benefits
+         * from a second thread. Both can be overridden through DeviceConfig.
+         */
+        @JvmStatic
+        fun fromDeviceConfig(smallModel: Boolean): BackGestureInferenceOptions {
+            val threadsFlag = when {
+                smallModel -> BACK_GESTURE_ML_THREADS_SMALL
+                else -> BACK_GESTURE_ML_THREADS_LARGE
+            }
+            return BackGestureInferenceOptions(
+                DeviceConfig.getInt(
+                    DeviceConfig.NAMESPACE_SYSTEMUI,
+                    threadsFlag,
+                    if (smallModel) 1 else 2
+                ).coerceAtLeast(1),
+                DeviceConfig.getBoolean(
+                    DeviceConfig.NAMESPACE_SYSTEMUI,
+                    BACK_GESTURE_ML_USE_XNNPACK,
+                    true
+                ),
+                DeviceConfig.getBoolean(
+                    DeviceConfig.NAMESPACE_SYSTEMUI,
+                    BACK_GESTURE_ML_ALLOW_FP16,
+                    false
+                )
+            )
+        }
+
+        @JvmField
+        val DEFAULT = BackGestureInferenceOptions(1, true, false)
+
+        const val BACK_GESTURE_ML_THREADS_SMALL = "back_gesture_ml_threads_small"
+        const val BACK_GESTURE_ML_THREADS_LARGE = "back_gesture_ml_threads_large"
+        const val BACK_GESTURE_ML_USE_XNNPACK = "back_gesture_ml_use_xnnpack"
+        const val BACK_GESTURE_ML_ALLOW_FP16 = "back_gesture_ml_allow_fp16"
+    }
+}
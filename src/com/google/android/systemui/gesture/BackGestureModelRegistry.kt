@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.gesture
+
+import android.app.ActivityManager
+import android.content.Context
+import android.content.res.AssetManager
+import android.os.PowerManager
+import android.provider.DeviceConfig
+import android.util.Log
+import com.android.systemui.CoreStartable
+import com.android.systemui.dagger.SysUISingleton
+import com.android.systemui.dagger.qualifiers.Background
+import com.android.systemui.navigationbar.gestural.BackGestureTfClassifierProvider
+import com.android.systemui.statusbar.commandline.CommandRegistry
+import java.io.PrintWriter
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import javax.inject.Inject
+
+/**
+ * Chooses between the bundled back gesture models and keeps the selected one loaded in a
+ * single live [BackGestureTfClassifierProviderGoogle].
+ *
+ * The small model is used on low RAM devices and while the device is thermally
+ * throttled. [acquire] returns a [BackGestureTfClassifierProvider] that forwards to
+ * whichever model is live, and the model is loaded, warmed up and swapped in on the
+ * background executor. A thermal or DeviceConfig change that selects a different model
+ * or different inference options replaces the live model atomically. Releasing the
+ * returned provider unloads the model until the next [acquire].
+ */
+@SysUISingleton
+class BackGestureModelRegistry
+@Inject
+constructor(
+    private val context: Context,
+    private val activityManager: ActivityManager,
+    private val powerManager: PowerManager,
+    private val commandRegistry: CommandRegistry,
+    @Background private val bgExecutor: Executor
+) : CoreStartable(context) {
+    private val live = AtomicReference<BackGestureTfClassifierProviderGoogle?>()
+    private val thermalListener = PowerManager.OnThermalStatusChangedListener { refresh() }
+    private val deviceConfigListener =
+        DeviceConfig.OnPropertiesChangedListener { properties ->
+            if (properties.keyset.any { it.startsWith(BACK_GESTURE_ML_FLAG_PREFIX) }) {
+                refresh()
+            }
+        }
+    private val liveProvider = LiveProvider()
+    @Volatile private var enabled = false
+    @Volatile private var loadFailed = false
+    private val hits = AtomicInteger()
+    private val misses = AtomicInteger()
+    private val swaps = AtomicInteger()
+
+    override fun start() {
+        powerManager.addThermalStatusListener(bgExecutor, thermalListener)
+        DeviceConfig.addOnPropertiesChangedListener(
+            DeviceConfig.NAMESPACE_SYSTEMUI,
+            bgExecutor,
+            deviceConfigListener
+        )
+        // Thousands of inferences per model; keep them off the main thread.
+        commandRegistry.registerCommand(
+            BackGestureBenchmarkCommand.NAME,
+            {
+                BackGestureBenchmarkCommand(context.assets, listOf(SMALL_MODEL, LARGE_MODEL)) {
+                    BackGestureInferenceOptions.fromDeviceConfig(it == SMALL_MODEL)
+                }
+            },
+            bgExecutor
+        )
+    }
+
+    /**
+     * Returns the provider for the currently selected model and starts loading it in the
+     * background if it is not loaded yet. Until then predictions return -1, which callers
+     * already treat as no prediction.
+     */
+    fun acquire(): BackGestureTfClassifierProvider {
+        enabled = true
+        if (live.get() == null) {
+            bgExecutor.execute(::refresh)
+        }
+        return liveProvider
+    }
+
+    /** Loads the selected model on the background executor and swaps it in if it changed. */
+    private fun refresh() {
+        if (!enabled) {
+            return
+        }
+        val modelName = selectModel()
+        val options = BackGestureInferenceOptions.fromDeviceConfig(modelName == SMALL_MODEL)
+        val current = live.get()
+        if (current?.modelName == modelName && current.options == options) {
+            return
+        }
+        val provider = when (current?.modelName) {
+            // Only the options changed: rebuild the interpreter, keep model and vocabulary.
+            modelName -> current.withOptions(options)
+            else -> BackGestureTfClassifierProviderGoogle(context.assets, modelName, options)
+        }
+        loadFailed = !provider.isActive()
+        if (loadFailed) {
+            Log.w(logTag, "Unable to load $modelName")
+            provider.release()
+            return
+        }
+        provider.warmUp(context.assets)
+        if (!enabled) {
+            provider.release()
+            return
+        }
+        live.getAndSet(provider)?.release()
+        swaps.incrementAndGet()
+    }
+
+    private fun unload() {
+        if (!enabled) {
+            live.getAndSet(null)?.release()
+        }
+    }
+
+    private fun selectModel(): String {
+        val lowRam = activityManager.isLowRamDevice ||
+            ActivityManager.MemoryInfo().also { activityManager.getMemoryInfo(it) }
+                .totalMem < LARGE_MODEL_MIN_RAM_BYTES
+        val throttled = powerManager.currentThermalStatus >= PowerManager.THERMAL_STATUS_MODERATE
+        return when {
+            lowRam || throttled -> SMALL_MODEL
+            else -> LARGE_MODEL
+        }
+    }
+
+    override fun dump(pw: PrintWriter, args: Array<String>) {
+        pw.println("BackGestureModelRegistry:")
+        val provider = live.get()
+        pw.println("  enabled=$enabled loadFailed=$loadFailed")
+        pw.println("  liveModel=${provider?.modelName}")
+        pw.println("  inferenceOptions=${provider?.options}")
+        pw.println("  hits=${hits.get()} misses=${misses.get()} swaps=${swaps.get()}")
+    }
+
+    /**
+     * The provider handed to the back gesture handler. Every call reads the live model,
+     * so a swap takes effect on the next prediction; the vocabulary is likewise a view of
+     * the live model's.
+     */
+    private inner class LiveProvider : BackGestureTfClassifierProvider() {
+        private val vocab = object : AbstractMap<String, Int>() {
+            override val entries: Set<Map.Entry<String, Int>>
+                get() = liveVocab()?.entries ?: emptySet()
+
+            override fun get(key: String): Int? = liveVocab()?.get(key)
+
+            override fun containsKey(key: String): Boolean = liveVocab()?.containsKey(key) == true
+        }
+
+        private fun liveVocab(): Map<String, Int>? = live.get()?.loadVocab(context.assets)
+
+        override fun isActive(): Boolean = enabled && (live.get() != null || !loadFailed)
+
+        override fun loadVocab(am: AssetManager): Map<String, Int> = vocab
+
+        override fun predict(featuresVector: Array<Any>): Float {
+            val provider = live.get()
+            if (provider == null) {
+                misses.incrementAndGet()
+                return -1f
+            }
+            hits.incrementAndGet()
+            return provider.predict(featuresVector)
+        }
+
+        override fun release() {
+            enabled = false
+            bgExecutor.execute(::unload)
+        }
+    }
+
+    companion object {
+        private const val logTag = "BackGestureModelRegistry"
+        private const val LARGE_MODEL = "backgesture"
+        private const val SMALL_MODEL = "backgesture1000"
+        private const val BACK_GESTURE_ML_FLAG_PREFIX = "back_gesture_ml_"
+        private const val LARGE_MODEL_MIN_RAM_BYTES = 4L * 1024 * 1024 * 1024
+    }
+}
@@ -16,39 +16,214 @@
 package com.google.android.systemui.gesture
 
 import android.content.res.AssetManager
+import android.util.Log
 import com.android.systemui.dagger.SysUISingleton
 import com.android.systemui.navigationbar.gestural.BackGestureTfClassifierProvider
+import org.tensorflow.lite.DataType
 import org.tensorflow.lite.Interpreter
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
 import java.nio.channels.FileChannel
 import javax.inject.Inject
 
-class BackGestureTfClassifierProviderGoogle constructor(
-    am: AssetManager,
-    modelName: String
+class BackGestureTfClassifierProviderGoogle private constructor(
+    val modelName: String,
+    val options: BackGestureInferenceOptions,
+    private var model: MappedByteBuffer?,
+    private var vocab: Map<String, Int>?
 ) : BackGestureTfClassifierProvider() {
-    private val outputMap = hashMapOf<Int, Any>()
+    private val output = FloatArray(1)
+    private val outputMap = hashMapOf<Int, Any>(0 to output)
     private val vocabFile = "$modelName.vocab"
-    private var interpreter = am.openFd("$modelName.tflite")
-    override fun isActive(): Boolean = true
-    override fun release() = interpreter.close()
-    
-    override fun loadVocab(am: AssetManager): Map<String, Int> {
-        return am.open(vocabFile).use { input ->
-            String(input.readBytes()).lines().asSequence()
-                .withIndex().map { it.value to it.index }.toMap()
+    private var interpreter: Interpreter? = null
+    private var batchInterpreter: Interpreter? = null
+    private var batchCapacity = 0
+
+    @JvmOverloads
+    constructor(
+        am: AssetManager,
+        modelName: String,
+        options: BackGestureInferenceOptions = BackGestureInferenceOptions.DEFAULT
+    ) : this(modelName, options, mapModel(am, modelName), null)
+
+    init {
+        try {
+            interpreter = model?.let {
+                Interpreter(it, options.toInterpreterOptions()).apply { allocateTensors() }
+            }
+        } catch (ex: IllegalArgumentException) {
+            // Thrown by the Interpreter for a corrupt or incompatible model.
+            Log.e(logTag, "Invalid back gesture model $modelName", ex)
+            model = null
         }
     }
 
+    /**
+     * Returns a provider for the same model running with [options]. It shares this
+     * provider's mapped model and loaded vocabulary, so only the interpreter is rebuilt;
+     * this provider can be released independently.
+     */
+    @Synchronized
+    fun withOptions(options: BackGestureInferenceOptions): BackGestureTfClassifierProviderGoogle =
+        BackGestureTfClassifierProviderGoogle(modelName, options, model, vocab)
+
+    @Synchronized
+    override fun isActive(): Boolean = interpreter != null
+
+    @Synchronized
+    override fun release() {
+        interpreter?.close()
+        interpreter = null
+        batchInterpreter?.close()
+        batchInterpreter = null
+        batchCapacity = 0
+        model = null
+        vocab = null
+    }
+
+    @Synchronized
+    override fun loadVocab(am: AssetManager): Map<String, Int> {
+        return vocab ?: BackGestureVocab.load(am, vocabFile).also { vocab = it }
+    }
+
+    /**
+     * Loads the vocabulary and runs one inference over zeroed inputs so that the first
+     * real prediction does not pay for page faults and kernel preparation.
+     */
+    fun warmUp(am: AssetManager) {
+        loadVocab(am)
+        newFeaturesVector()?.let { predict(it) }
+    }
+
+    @Synchronized
     override fun predict(featuresVector: Array<Any>): Float {
-        val output = floatArrayOf(0f).also { outputMap[0] = it }
-        with(interpreter) {
-            use {
-                Interpreter(it.createInputStream().channel.map(
-                    FileChannel.MapMode.READ_ONLY,
-                    it.startOffset, it.declaredLength
-                ))
-            }.runForMultipleInputsOutputs(featuresVector, outputMap)
-        }
+        val interpreter = interpreter ?: return -1f
+        interpreter.runForMultipleInputsOutputs(featuresVector, outputMap)
         return output[0]
     }
+
+    /**
+     * Creates zeroed input arrays matching the model's input tensors, suitable for
+     * [predict], or null if the model is not loaded.
+     */
+    @Synchronized
+    fun newFeaturesVector(): Array<Any>? {
+        val interpreter = interpreter ?: return null
+        return Array(interpreter.inputTensorCount) {
+            val tensor = interpreter.getInputTensor(it)
+            val componentType = when (tensor.dataType()) {
+                DataType.INT64 -> java.lang.Long.TYPE
+                DataType.INT32 -> Integer.TYPE
+                DataType.UINT8 -> java.lang.Byte.TYPE
+                else -> java.lang.Float.TYPE
+            }
+            java.lang.reflect.Array.newInstance(componentType, *tensor.shape())
+        }
+    }
+
+    /**
+     * Creates a [Batch] for scoring up to [capacity] feature vectors per interpreter
+     * invocation, or null if the model is not loaded.
+     */
+    @Synchronized
+    fun newBatch(capacity: Int): Batch? {
+        val interpreter = interpreter ?: return null
+        return Batch(capacity, interpreter)
+    }
+
+    /**
+     * Scores the first [Batch.size] rows of [batch] in a single interpreter invocation
+     * and returns [Batch.scores].
+     *
+     * Batches run on a second interpreter over the same mapped model, created on first
+     * use, so that the single-sample [predict] keeps its shape. It is only resized when
+     * the batch capacity changes; nothing is allocated for consecutive batches of the
+     * same capacity.
+     */
+    @Synchronized
+    fun predict(batch: Batch): FloatArray {
+        val interpreter = batchInterpreter(batch)
+        if (interpreter == null) {
+            batch.scores.fill(-1f)
+            return batch.scores
+        }
+        // The interpreter copies its output in with relative puts.
+        batch.output.rewind()
+        interpreter.runForMultipleInputsOutputs(batch.inputs, batch.outputMap)
+        for (row in 0 until batch.size) {
+            batch.scores[row] = batch.output.getFloat(row * Float.SIZE_BYTES)
+        }
+        return batch.scores
+    }
+
+    private fun batchInterpreter(batch: Batch): Interpreter? {
+        val model = model ?: return null
+        val interpreter = batchInterpreter
+            ?: Interpreter(model, options.toInterpreterOptions()).also { batchInterpreter = it }
+        if (batchCapacity != batch.capacity) {
+            batch.shapes.forEachIndexed { index, shape -> interpreter.resizeInput(index, shape) }
+            interpreter.allocateTensors()
+            batchCapacity = batch.capacity
+        }
+        return interpreter
+    }
+
+    /**
+     * Fixed-shape, preallocated input and output buffers for [predict]. Every model input
+     * tensor is resized to [capacity] rows; the features of candidate `n` for input `i`
+     * are written in native byte order at offset `n * rowBytes[i]` of `inputs[i]`.
+     * Rows past [size] are still evaluated but their scores are ignored.
+     */
+    class Batch internal constructor(val capacity: Int, interpreter: Interpreter) {
+        internal val shapes = Array(interpreter.inputTensorCount) {
+            interpreter.getInputTensor(it).shape().copyOf().apply { this[0] = capacity }
+        }
+        val rowBytes = IntArray(shapes.size) {
+            interpreter.getInputTensor(it).run { numBytes() / maxOf(shape()[0], 1) }
+        }
+        val inputs = Array<Any>(shapes.size) { directBuffer(rowBytes[it] * capacity) }
+        val scores = FloatArray(capacity)
+        internal val output = directBuffer(Float.SIZE_BYTES * capacity)
+        internal val outputMap = hashMapOf<Int, Any>(0 to output)
+
+        /** Number of rows filled in by the caller. */
+        var size = 0
+            set(value) {
+                require(value in 0..capacity) { "Batch size $value exceeds $capacity" }
+                field = value
+            }
+
+        fun input(index: Int): ByteBuffer = inputs[index] as ByteBuffer
+
+        fun clear() {
+            size = 0
+            inputs.forEach { (it as ByteBuffer).clear() }
+            output.rewind()
+        }
+
+        private fun directBuffer(bytes: Int): ByteBuffer =
+            ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder())
+    }
+
+    companion object {
+        private const val logTag = "BackGestureTfClassifierProviderGoogle"
+
+        private fun mapModel(am: AssetManager, modelName: String): MappedByteBuffer? =
+            try {
+                am.openFd("$modelName.tflite").use {
+                    it.createInputStream().channel.use { channel ->
+                        channel.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            it.startOffset,
+                            it.declaredLength
+                        )
+                    }
+                }
+            } catch (ex: IOException) {
+                Log.e(logTag, "Failed to load back gesture model $modelName", ex)
+                null
+            }
+    }
 }
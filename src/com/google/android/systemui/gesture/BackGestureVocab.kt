@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.gesture
+
+import android.content.res.AssetManager
+import android.util.Log
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.util.zip.CRC32
+
+/**
+ * Read-only token to id index over a newline separated vocabulary asset.
+ *
+ * The asset is memory-mapped (it is stored uncompressed in the APK) and only two
+ * [IntArray]s are kept on the heap: the start offset of every line and the line ids
+ * sorted by token. Both come from the `<vocab>.idx` asset generated at build time by
+ * `tools/gen_back_gesture_vocab_index.py`; if it is missing or was generated from a
+ * different vocabulary they are rebuilt by sorting a heap copy of the asset once.
+ * Lookups binary search the mapped bytes, so no per-entry String, Integer or
+ * Map.Entry objects are retained. Tokens are package names and are compared as ASCII.
+ */
+class BackGestureVocab private constructor(
+    private val buffer: ByteBuffer,
+    private val lineStarts: IntArray,
+    private val sortedIds: IntArray
+) : AbstractMap<String, Int>() {
+
+    override val size: Int
+        get() = sortedIds.size
+
+    override fun get(key: String): Int? {
+        val index = indexOf(key)
+        return if (index < 0) null else sortedIds[index]
+    }
+
+    override fun containsKey(key: String): Boolean = indexOf(key) >= 0
+
+    /** Entries are materialised on demand and are only meant for debugging. */
+    override val entries: Set<Map.Entry<String, Int>>
+        get() = object : AbstractSet<Map.Entry<String, Int>>() {
+            override val size: Int
+                get() = this@BackGestureVocab.size
+
+            override fun iterator(): Iterator<Map.Entry<String, Int>> =
+                (0 until size).asSequence().map { id ->
+                    object : Map.Entry<String, Int> {
+                        override val key = tokenAt(id)
+                        override val value = id
+                    }
+                }.iterator()
+        }
+
+    private fun indexOf(key: String): Int {
+        var low = 0
+        var high = sortedIds.size - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val cmp = compareToken(sortedIds[mid], key)
+            when {
+                cmp < 0 -> low = mid + 1
+                cmp > 0 -> high = mid - 1
+                else -> return mid
+            }
+        }
+        return -1
+    }
+
+    private fun compareToken(id: Int, key: String): Int {
+        val start = lineStarts[id]
+        val length = tokenLength(id)
+        val common = minOf(length, key.length)
+        for (i in 0 until common) {
+            val diff = (buffer.get(start + i).toInt() and 0xff) - key[i].code
+            if (diff != 0) return diff
+        }
+        return length - key.length
+    }
+
+    private fun tokenLength(id: Int): Int {
+        val length = lineStarts[id + 1] - lineStarts[id] - 1
+        return if (length > 0 && buffer.get(lineStarts[id] + length - 1) == CARRIAGE_RETURN) {
+            length - 1
+        } else {
+            length
+        }
+    }
+
+    private fun tokenAt(id: Int): String {
+        val bytes = ByteArray(tokenLength(id))
+        for (i in bytes.indices) bytes[i] = buffer.get(lineStarts[id] + i)
+        return String(bytes, Charsets.US_ASCII)
+    }
+
+    companion object {
+        private const val logTag = "BackGestureVocab"
+        private const val NEWLINE: Byte = 0x0a
+        private const val CARRIAGE_RETURN: Byte = 0x0d
+        private const val INDEX_MAGIC = 0x49564742 // "BGVI"
+        private const val INDEX_VERSION = 1
+        private const val INDEX_HEADER_BYTES = 5 * Int.SIZE_BYTES
+
+        /**
+         * Maps [fileName] from [am]. Falls back to reading the asset onto the heap if it
+         * was packaged compressed and cannot be opened as a file descriptor.
+         */
+        @JvmStatic
+        fun load(am: AssetManager, fileName: String): BackGestureVocab =
+            load(am, fileName, useIndex = true)
+
+        /** [load], optionally ignoring the prebuilt index; visible for benchmarking. */
+        internal fun load(am: AssetManager, fileName: String, useIndex: Boolean): BackGestureVocab {
+            val buffer = try {
+                map(am, fileName)
+            } catch (ex: FileNotFoundException) {
+                am.open(fileName).use { ByteBuffer.wrap(it.readBytes()) }
+            }
+            val index = if (useIndex) readIndex(am, "$fileName.idx", buffer) else null
+            return index?.let { BackGestureVocab(buffer, it.first, it.second) } ?: sort(buffer)
+        }
+
+        private fun map(am: AssetManager, fileName: String): ByteBuffer =
+            am.openFd(fileName).use {
+                it.createInputStream().channel.use { channel ->
+                    channel.map(FileChannel.MapMode.READ_ONLY, it.startOffset, it.declaredLength)
+                }
+            }
+
+        /**
+         * Reads the line starts and sorted ids from [indexName], or returns null if it is
+         * missing or does not describe exactly the bytes of [vocab].
+         */
+        private fun readIndex(
+            am: AssetManager,
+            indexName: String,
+            vocab: ByteBuffer
+        ): Pair<IntArray, IntArray>? {
+            val index = try {
+                map(am, indexName).order(ByteOrder.LITTLE_ENDIAN)
+            } catch (ex: IOException) {
+                Log.w(logTag, "No index $indexName, sorting vocabulary")
+                return null
+            }
+            val limit = vocab.limit()
+            val lines = when {
+                index.limit() < INDEX_HEADER_BYTES -> -1
+                else -> index.getInt(4 * Int.SIZE_BYTES)
+            }
+            val crc = CRC32().apply { update(vocab.duplicate().apply { clear() }) }
+            if (lines < 0 ||
+                index.getInt(0) != INDEX_MAGIC ||
+                index.getInt(Int.SIZE_BYTES) != INDEX_VERSION ||
+                index.getInt(2 * Int.SIZE_BYTES) != limit ||
+                index.getInt(3 * Int.SIZE_BYTES) != crc.value.toInt() ||
+                index.limit() != INDEX_HEADER_BYTES + (2 * lines + 1) * Int.SIZE_BYTES
+            ) {
+                Log.w(logTag, "Stale index $indexName, sorting vocabulary")
+                return null
+            }
+            val ints = index.asIntBuffer()
+                .apply { position(INDEX_HEADER_BYTES / Int.SIZE_BYTES) }
+            val lineStarts = IntArray(lines + 1).also { ints.get(it) }
+            val sortedIds = IntArray(lines).also { ints.get(it) }
+            return lineStarts to sortedIds
+        }
+
+        /** Builds the index at runtime from a heap copy of [buffer]. */
+        private fun sort(buffer: ByteBuffer): BackGestureVocab {
+            val limit = buffer.limit()
+            val bytes = if (buffer.hasArray()) {
+                buffer.array()
+            } else {
+                ByteArray(limit).also { buffer.duplicate().apply { clear() }.get(it) }
+            }
+            var lines = 0
+            for (i in 0 until limit) {
+                if (bytes[i] == NEWLINE) lines++
+            }
+            if (limit > 0 && bytes[limit - 1] != NEWLINE) lines++
+            val lineStarts = IntArray(lines + 1)
+            var line = 1
+            for (i in 0 until limit) {
+                if (bytes[i] == NEWLINE && line < lines) lineStarts[line++] = i + 1
+            }
+            // Sentinel one past the terminating newline, real or implied.
+            lineStarts[lines] = if (limit > 0 && bytes[limit - 1] == NEWLINE) limit else limit + 1
+            val sortedIds = IntArray(lines) { it }
+            heapSort(sortedIds, bytes, lineStarts)
+            return BackGestureVocab(buffer, lineStarts, sortedIds)
+        }
+
+        private fun heapSort(ids: IntArray, bytes: ByteArray, lineStarts: IntArray) {
+            for (i in ids.size / 2 - 1 downTo 0) siftDown(ids, i, ids.size, bytes, lineStarts)
+            for (end in ids.size - 1 downTo 1) {
+                ids[0] = ids[end].also { ids[end] = ids[0] }
+                siftDown(ids, 0, end, bytes, lineStarts)
+            }
+        }
+
+        private fun siftDown(
+            ids: IntArray,
+            start: Int,
+            end: Int,
+            bytes: ByteArray,
+            lineStarts: IntArray
+        ) {
+            var root = start
+            while (true) {
+                var child = root * 2 + 1
+                if (child >= end) return
+                if (child + 1 < end &&
+                    compareTokens(ids[child], ids[child + 1], bytes, lineStarts) < 0
+                ) {
+                    child++
+                }
+                if (compareTokens(ids[root], ids[child], bytes, lineStarts) >= 0) return
+                ids[root] = ids[child].also { ids[child] = ids[root] }
+                root = child
+            }
+        }
+
+        /** Orders tokens by unsigned bytes, then by line so that duplicates sort stably. */
+        private fun compareTokens(a: Int, b: Int, bytes: ByteArray, lineStarts: IntArray): Int {
+            val startA = lineStarts[a]
+            val startB = lineStarts[b]
+            val lengthA = tokenLength(a, bytes, lineStarts)
+            val lengthB = tokenLength(b, bytes, lineStarts)
+            for (i in 0 until minOf(lengthA, lengthB)) {
+                val diff = (bytes[startA + i].toInt() and 0xff) -
+                    (bytes[startB + i].toInt() and 0xff)
+                if (diff != 0) return diff
+            }
+            return if (lengthA != lengthB) lengthA - lengthB else a - b
+        }
+
+        private fun tokenLength(id: Int, bytes: ByteArray, lineStarts: IntArray): Int {
+            val length = lineStarts[id + 1] - lineStarts[id] - 1
+            return if (length > 0 && bytes[lineStarts[id] + length - 1] == CARRIAGE_RETURN) {
+                length - 1
+            } else {
+                length
+            }
+        }
+    }
+}
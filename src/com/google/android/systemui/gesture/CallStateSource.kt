@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.gesture
+
+import android.telecom.TelecomManager
+import android.telephony.TelephonyCallback
+import android.telephony.TelephonyManager
+import com.android.systemui.Dumpable
+import com.android.systemui.telephony.TelephonyListenerManager
+import dagger.Lazy
+import java.io.PrintWriter
+
+/**
+ * Call state shared by the squeeze (Elmyra) and quick tap (Columbus) gestures.
+ *
+ * Gates and actions of both services listen here instead of registering their own
+ * telephony callbacks. The source registers a single call state listener while it has
+ * at least one listener of its own, so there is nothing registered while neither gesture
+ * service is live.
+ *
+ * Main thread only.
+ */
+class CallStateSource(
+    private val telephonyManager: Lazy<TelephonyManager>,
+    private val telephonyListenerManager: Lazy<TelephonyListenerManager>,
+    private val telecomManager: Lazy<TelecomManager>
+) : Dumpable {
+    fun interface Listener {
+        fun onCallStateChanged(callState: Int)
+    }
+
+    private val listeners = LinkedHashSet<Listener>()
+    private var registrations = 0
+
+    /** The last known call state; only current while there are listeners. */
+    var callState = TelephonyManager.CALL_STATE_IDLE
+        private set
+
+    val isRinging: Boolean
+        get() = callState == TelephonyManager.CALL_STATE_RINGING
+
+    val isOffHook: Boolean
+        get() = callState == TelephonyManager.CALL_STATE_OFFHOOK
+
+    private val callStateListener = TelephonyCallback.CallStateListener { state ->
+        if (callState != state) {
+            callState = state
+            listeners.toTypedArray().forEach { it.onCallStateChanged(state) }
+        }
+    }
+
+    /** Adds [listener]; the first one starts listening and refreshes [callState]. */
+    fun addListener(listener: Listener) {
+        if (!listeners.add(listener) || listeners.size > 1) {
+            return
+        }
+        callState = telephonyManager.get().callState
+        telephonyListenerManager.get().addCallStateListener(callStateListener)
+        registrations++
+    }
+
+    /** Removes [listener]; the last one stops listening. */
+    fun removeListener(listener: Listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) {
+            telephonyListenerManager.get().removeCallStateListener(callStateListener)
+        }
+    }
+
+    fun silenceRinger() {
+        telecomManager.get().silenceRinger()
+    }
+
+    override fun dump(pw: PrintWriter, args: Array<String>) {
+        pw.println("  CallStateSource:")
+        pw.println("    callState=$callState listeners=${listeners.size} " +
+            "registrations=$registrations")
+    }
+}
@@ -16,18 +16,23 @@
 package com.google.android.systemui.gesture
 
 import com.android.systemui.navigationbar.gestural.BackGestureTfClassifierProvider
-import com.google.android.systemui.gesture.BackGestureTfClassifierProviderGoogle
-import dagger.Binds
+import com.google.android.systemui.gesture.BackGestureModelRegistry
 import dagger.Module
+import dagger.Provides
 import dagger.multibindings.ClassKey
 import dagger.multibindings.IntoMap
 
 @Module
 abstract class GestureModuleGoogle {
-    @Binds
-    @IntoMap
-    @ClassKey(BackGestureTfClassifierProvider::class)
-    abstract fun provideBackGestureProvider(
-        provider: BackGestureTfClassifierProviderGoogle
-    ): BackGestureTfClassifierProvider
+    @Module
+    companion object {
+        @Provides
+        @IntoMap
+        @ClassKey(BackGestureTfClassifierProvider::class)
+        fun provideBackGestureProvider(
+            registry: BackGestureModelRegistry
+        ): BackGestureTfClassifierProvider {
+            return registry.acquire()
+        }
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.gesture
+
+import com.android.systemui.Dumpable
+import com.android.systemui.statusbar.policy.HeadsUpManager
+import com.android.systemui.statusbar.policy.OnHeadsUpChangedListener
+import java.io.PrintWriter
+import java.util.Optional
+
+/**
+ * Pinned heads up state shared by the squeeze (Elmyra) and quick tap (Columbus) gestures.
+ *
+ * The unpin actions of both services listen here instead of each adding their own
+ * [HeadsUpManager] listener. Like [CallStateSource], a single listener is added while the
+ * source has at least one listener of its own.
+ *
+ * Main thread only.
+ */
+class HeadsUpSource(headsUpManager: Optional<HeadsUpManager>) : Dumpable {
+    fun interface Listener {
+        fun onPinnedModeChanged(hasPinnedHeadsUp: Boolean)
+    }
+
+    private val headsUpManager: HeadsUpManager? = headsUpManager.orElse(null)
+    private val listeners = LinkedHashSet<Listener>()
+    private var registrations = 0
+
+    /** Whether there is a heads up manager to follow at all. */
+    val isSupported: Boolean
+        get() = headsUpManager != null
+
+    /** Whether a heads up is pinned; only current while there are listeners. */
+    var hasPinnedHeadsUp = false
+        private set
+
+    private val headsUpChangedListener = object : OnHeadsUpChangedListener {
+        override fun onHeadsUpPinnedModeChanged(inPinnedMode: Boolean) {
+            if (hasPinnedHeadsUp != inPinnedMode) {
+                hasPinnedHeadsUp = inPinnedMode
+                listeners.toTypedArray().forEach { it.onPinnedModeChanged(inPinnedMode) }
+            }
+        }
+    }
+
+    /** Adds [listener]; the first one starts listening and refreshes [hasPinnedHeadsUp]. */
+    fun addListener(listener: Listener) {
+        val manager = headsUpManager ?: return
+        if (!listeners.add(listener) || listeners.size > 1) {
+            return
+        }
+        hasPinnedHeadsUp = manager.hasPinnedHeadsUp()
+        manager.addListener(headsUpChangedListener)
+        registrations++
+    }
+
+    /** Removes [listener]; the last one stops listening. */
+    fun removeListener(listener: Listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) {
+            headsUpManager?.removeListener(headsUpChangedListener)
+            hasPinnedHeadsUp = false
+        }
+    }
+
+    fun unpinAll() {
+        headsUpManager?.unpinAll(true)
+    }
+
+    override fun dump(pw: PrintWriter, args: Array<String>) {
+        pw.println("  HeadsUpSource:")
+        pw.println("    hasPinnedHeadsUp=$hasPinnedHeadsUp listeners=${listeners.size} " +
+            "registrations=$registrations")
+    }
+}
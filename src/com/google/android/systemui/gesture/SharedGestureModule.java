@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2022 Benzo Rom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.systemui.gesture;
+
+import android.telecom.TelecomManager;
+import android.telephony.TelephonyManager;
+
+import com.android.systemui.dagger.SysUISingleton;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.statusbar.policy.HeadsUpManager;
+import com.android.systemui.telephony.TelephonyListenerManager;
+
+import java.util.Optional;
+
+import dagger.Lazy;
+import dagger.Module;
+import dagger.Provides;
+
+/**
+ * Infrastructure shared by the squeeze (Elmyra) and quick tap (Columbus) gestures, so a
+ * device running both registers each system listener once.
+ */
+@Module
+public interface SharedGestureModule {
+    @Provides
+    @SysUISingleton
+    static CallStateSource provideCallStateSource(
+            Lazy<TelephonyManager> telephonyManager,
+            Lazy<TelephonyListenerManager> telephonyListenerManager,
+            Lazy<TelecomManager> telecomManager,
+            DumpManager dumpManager) {
+        CallStateSource callStateSource = new CallStateSource(
+                telephonyManager,
+                telephonyListenerManager,
+                telecomManager);
+        dumpManager.registerDumpable("CallStateSource", callStateSource);
+        return callStateSource;
+    }
+
+    @Provides
+    @SysUISingleton
+    static HeadsUpSource provideHeadsUpSource(
+            Optional<HeadsUpManager> headsUpManagerOptional,
+            DumpManager dumpManager) {
+        HeadsUpSource headsUpSource = new HeadsUpSource(headsUpManagerOptional);
+        dumpManager.registerDumpable("HeadsUpSource", headsUpSource);
+        return headsUpSource;
+    }
+}
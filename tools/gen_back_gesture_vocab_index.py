@@ -0,0 +1,71 @@
+#!/usr/bin/env python3
+#
+# Copyright (C) 2022 Benzo Rom
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Generates the sorted token index read by BackGestureVocab.
+
+usage: gen_back_gesture_vocab_index.py assets/backgesture.vocab [...]
+
+Writes <vocab>.idx next to every vocabulary. Rerun whenever a vocabulary asset
+changes; a stale index is detected by its CRC and ignored at runtime.
+
+Layout, all fields little-endian int32:
+  magic 'BGVI', version, vocab length, vocab crc32, line count n,
+  line start offsets [n + 1], line ids sorted by token [n]
+"""
+
+import struct
+import sys
+import zlib
+
+MAGIC = 0x49564742  # "BGVI"
+VERSION = 1
+
+
+def build_index(data):
+    limit = len(data)
+    starts = [0]
+    for i, b in enumerate(data):
+        if b == 0x0a:
+            starts.append(i + 1)
+    if limit > 0 and data[-1] == 0x0a:
+        lines = len(starts) - 1
+    else:
+        lines = len(starts) if limit > 0 else 0
+        starts.append(limit + 1)
+    starts = starts[:lines + 1]
+
+    def token(line):
+        end = starts[line + 1] - 1
+        if end > starts[line] and data[end - 1] == 0x0d:
+            end -= 1
+        return data[starts[line]:end]
+
+    ids = sorted(range(lines), key=lambda line: (token(line), line))
+    header = struct.pack('<iiiIi', MAGIC, VERSION, limit, zlib.crc32(data), lines)
+    return header + struct.pack('<%di' % len(starts), *starts) \
+        + struct.pack('<%di' % lines, *ids)
+
+
+def main(paths):
+    for path in paths:
+        with open(path, 'rb') as f:
+            data = f.read()
+        with open(path + '.idx', 'wb') as f:
+            f.write(build_index(data))
+
+
+if __name__ == '__main__':
+    main(sys.argv[1:])